@@ -1,11 +1,17 @@
 package io.jenkins.plugins.sql.config;
 
 import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 import hudson.model.Descriptor;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import io.jenkins.plugins.sql.model.DatabaseConnection;
 import io.jenkins.plugins.sql.model.DatabaseDriver;
+import io.jenkins.plugins.sql.service.ConnectionSpec;
+import io.jenkins.plugins.sql.service.DatabaseService;
+import io.jenkins.plugins.sql.service.PoolProvider;
 import jenkins.model.GlobalConfiguration;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.QueryParameter;
@@ -16,9 +22,10 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -29,16 +36,33 @@ public class SqlGlobalConfiguration extends GlobalConfiguration {
     private static final Logger LOGGER = Logger.getLogger(SqlGlobalConfiguration.class.getName());
     
     private List<DatabaseConnection> databaseConnections = new ArrayList<>();
-    private final ConcurrentMap<String, javax.sql.DataSource> dataSourceCache = new ConcurrentHashMap<>();
+    /**
+     * What steps read: replaced as a whole whenever the connections change, never modified
+     */
+    private transient volatile Snapshot snapshot = Snapshot.EMPTY;
     
     public SqlGlobalConfiguration() {
         LOGGER.info("Loading configuration...");
         load();
+        publish(databaseConnections != null ? databaseConnections : new ArrayList<>());
         LOGGER.info("Configuration loaded successfully.");
     }
     
     public static SqlGlobalConfiguration get() {
-        return GlobalConfiguration.all().get(SqlGlobalConfiguration.class);
+        // a map lookup by type, unlike GlobalConfiguration.all().get() which scans every global configuration
+        return ExtensionList.lookupSingleton(SqlGlobalConfiguration.class);
+    }
+    
+    /**
+     * Makes the given connections the ones steps see. Readers get either the previous or the new connections as a
+     * whole, never a list that is being filled.
+     */
+    private synchronized void publish(List<DatabaseConnection> connections) {
+        Snapshot published = new Snapshot(connections, snapshot.version + 1);
+        this.databaseConnections = new ArrayList<>(connections);
+        this.snapshot = published;
+        LOGGER.fine(() -> "Published connection snapshot " + published.version + " with "
+                + published.connections.size() + " connection(s)");
     }
     
     @Override
@@ -52,14 +76,14 @@ public class SqlGlobalConfiguration extends GlobalConfiguration {
                 LOGGER.info("JSON key: " + key + " = " + json.get(key));
             }
             
-            // Clear existing connections first
-            this.databaseConnections = new ArrayList<>();
+            // built aside and published at once, so that running steps never see a partial list
+            List<DatabaseConnection> connections = new ArrayList<>();
             
             // Handle repeatable form data - check for different possible structures
             if (json.has("databaseConnections")) {
                 LOGGER.info("Found databaseConnections key");
                 Object connectionsObj = json.get("databaseConnections");
-                handleConnectionsObject(req, connectionsObj);
+                handleConnectionsObject(req, connectionsObj, connections);
             } else if (json.has("connection")) {
                 LOGGER.info("Found connection key (from var attribute)");
                 Object connectionObj = json.get("connection");
@@ -70,7 +94,7 @@ public class SqlGlobalConfiguration extends GlobalConfiguration {
                         JSONObject connJson = connectionsArray.getJSONObject(i);
                         DatabaseConnection conn = req.bindJSON(DatabaseConnection.class, connJson);
                         if (conn != null && conn.getUuid() != null && !conn.getUuid().trim().isEmpty()) {
-                            this.databaseConnections.add(conn);
+                            connections.add(conn);
                             LOGGER.info("Added connection: " + conn.getUuid());
                         }
                     }
@@ -78,23 +102,24 @@ public class SqlGlobalConfiguration extends GlobalConfiguration {
                     LOGGER.info("Processing single connection from connection object");
                     DatabaseConnection conn = req.bindJSON(DatabaseConnection.class, (JSONObject) connectionObj);
                     if (conn != null && conn.getUuid() != null && !conn.getUuid().trim().isEmpty()) {
-                        this.databaseConnections.add(conn);
+                        connections.add(conn);
                         LOGGER.info("Added connection: " + conn.getUuid());
                     }
                 }
             } else {
                 LOGGER.info("No connection data found, trying standard binding");
                 // Let Jenkins handle the data binding automatically as fallback
+                long version = snapshot.version;
                 req.bindJSON(this, json);
+                if (snapshot.version != version) {
+                    // bound through setDatabaseConnections, which published them already
+                    connections = snapshot.connections;
+                }
             }
+            publish(connections);
             
-            // Ensure databaseConnections is not null
-            if (this.databaseConnections == null) {
-                this.databaseConnections = new ArrayList<>();
-            }
-            
-            LOGGER.info("Final result: Configured " + this.databaseConnections.size() + " database connections");
-            for (DatabaseConnection conn : this.databaseConnections) {
+            LOGGER.info("Final result: Configured " + connections.size() + " database connections");
+            for (DatabaseConnection conn : connections) {
                 if (conn != null) {
                     LOGGER.info("Connection: " + conn.getUuid() + " - " + conn.getName());
                 }
@@ -103,8 +128,9 @@ public class SqlGlobalConfiguration extends GlobalConfiguration {
             // Save configuration
             save();
             
-            // Clear cache when configuration changes
-            dataSourceCache.clear();
+            // Replace the pools of changed connections, letting running queries finish on the old ones
+            DatabaseService.reconfigure(snapshot.connections);
+            DatabaseService.prewarm(snapshot.connections);
             
             return true;
         } catch (Exception e) {
@@ -114,7 +140,8 @@ public class SqlGlobalConfiguration extends GlobalConfiguration {
         }
     }
     
-    private void handleConnectionsObject(StaplerRequest req, Object connectionsObj) throws Exception {
+    private void handleConnectionsObject(StaplerRequest req, Object connectionsObj,
+                                         List<DatabaseConnection> connections) throws Exception {
         if (connectionsObj instanceof net.sf.json.JSONArray) {
             net.sf.json.JSONArray connectionsArray = (net.sf.json.JSONArray) connectionsObj;
             LOGGER.info("Processing " + connectionsArray.size() + " connections from databaseConnections array");
@@ -122,7 +149,7 @@ public class SqlGlobalConfiguration extends GlobalConfiguration {
                 JSONObject connJson = connectionsArray.getJSONObject(i);
                 DatabaseConnection conn = req.bindJSON(DatabaseConnection.class, connJson);
                 if (conn != null && conn.getUuid() != null && !conn.getUuid().trim().isEmpty()) {
-                    this.databaseConnections.add(conn);
+                    connections.add(conn);
                     LOGGER.info("Added connection: " + conn.getUuid());
                 }
             }
@@ -130,45 +157,69 @@ public class SqlGlobalConfiguration extends GlobalConfiguration {
             LOGGER.info("Processing single connection from databaseConnections object");
             DatabaseConnection conn = req.bindJSON(DatabaseConnection.class, (JSONObject) connectionsObj);
             if (conn != null && conn.getUuid() != null && !conn.getUuid().trim().isEmpty()) {
-                this.databaseConnections.add(conn);
+                connections.add(conn);
                 LOGGER.info("Added connection: " + conn.getUuid());
             }
         }
     }
 
+    /**
+     * @return the configured connections, which cannot be modified
+     */
     public List<DatabaseConnection> getDatabaseConnections() {
-        LOGGER.info("Retrieving database connections, current count: " + (databaseConnections != null ? databaseConnections.size() : 0));
-        if (databaseConnections == null) {
-            databaseConnections = new ArrayList<>();
-        }
-        return databaseConnections;
+        return snapshot.connections;
     }
     
+    /**
+     * Replaces the connections. They must not be changed afterwards, as their settings are read once here.
+     */
     public void setDatabaseConnections(List<DatabaseConnection> databaseConnections) {
-        this.databaseConnections = databaseConnections != null ? databaseConnections : new ArrayList<>();
-        LOGGER.info("Setting database connections: " + this.databaseConnections.size() + " connections");
+        publish(databaseConnections != null ? databaseConnections : new ArrayList<>());
+        DatabaseService.reconfigure(snapshot.connections);
+        DatabaseService.prewarm(snapshot.connections);
+        LOGGER.info("Setting database connections: " + snapshot.connections.size() + " connections");
+    }
+    
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    public static void prewarmPools() {
+        DatabaseService.prewarm(get().getDatabaseConnections());
     }
     
     @CheckForNull
     public DatabaseConnection getDatabaseConnection(String id) {
-        if (id == null) {
-            return null;
-        }
-        return databaseConnections.stream()
-                .filter(conn -> id.equals(conn.getUuid()))
-                .findFirst()
-                .orElse(null);
+        return id != null ? snapshot.byId.get(id) : null;
+    }
+    
+    /**
+     * @return the settings of the connection with its password already decrypted, or {@code null} if there is no
+     * such connection
+     */
+    @CheckForNull
+    public ConnectionSpec getConnectionSpec(String id) {
+        return id != null ? snapshot.specs.get(id) : null;
     }
     
     public ListBoxModel doFillDatabaseConnectionIdItems() {
         ListBoxModel items = new ListBoxModel();
         items.add("Select a database connection", "");
-        for (DatabaseConnection conn : databaseConnections) {
+        for (DatabaseConnection conn : snapshot.connections) {
             items.add(conn.getName() + " (" + conn.getUuid() + ")", conn.getUuid());
         }
         return items;
     }
     
+    /**
+     * @return state of the connection's pool, shown on the configuration page
+     */
+    public String getPoolStatus(String connectionId) {
+        String status = DatabaseService.getPoolStatus(connectionId);
+        return status != null ? status : "Not opened yet";
+    }
+    
+    public List<PoolProvider> getPoolProviders() {
+        return PoolProvider.all();
+    }
+    
     public ListBoxModel doFillDriverClassItems() {
         ListBoxModel items = new ListBoxModel();
         for (DatabaseDriver driver : DatabaseDriver.values()) {
@@ -237,4 +288,39 @@ public class SqlGlobalConfiguration extends GlobalConfiguration {
     public String getDisplayName() {
         return "SQL Plugin Configuration";
     }
+    
+    /**
+     * Immutable view of the connections at one point in time, indexed by connection id
+     */
+    private static final class Snapshot {
+        /**
+         * Versions count up from the controller's start time, so that pools on agents that outlive a restart of
+         * the controller still take the restarted controller's settings as newer
+         */
+        static final Snapshot EMPTY = new Snapshot(new ArrayList<>(), System.currentTimeMillis());
+        
+        final List<DatabaseConnection> connections;
+        final Map<String, DatabaseConnection> byId;
+        /**
+         * Pool settings with decrypted passwords, so that borrowing a connection does not decrypt again
+         */
+        final Map<String, ConnectionSpec> specs;
+        final long version;
+        
+        Snapshot(List<DatabaseConnection> connections, long version) {
+            Map<String, DatabaseConnection> byId = new HashMap<>();
+            Map<String, ConnectionSpec> specs = new HashMap<>();
+            for (DatabaseConnection connection : connections) {
+                // the first of several connections with the same id wins, as before
+                if (connection != null && connection.getUuid() != null && !byId.containsKey(connection.getUuid())) {
+                    byId.put(connection.getUuid(), connection);
+                    specs.put(connection.getUuid(), ConnectionSpec.of(connection, version));
+                }
+            }
+            this.connections = Collections.unmodifiableList(new ArrayList<>(connections));
+            this.byId = byId;
+            this.specs = specs;
+            this.version = version;
+        }
+    }
 }
@@ -0,0 +1,159 @@
+package io.jenkins.plugins.sql.metrics;
+
+import io.jenkins.plugins.sql.service.ConnectionAdmission;
+import io.jenkins.plugins.sql.service.DatabaseService;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counters of one database connection since Jenkins started
+ */
+@ExportedBean
+public final class ConnectionMetrics {
+    private final String connectionId;
+    private final LatencyHistogram slotWait = new LatencyHistogram();
+    private final LatencyHistogram borrow = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+    private final LatencyHistogram fetch = new LatencyHistogram();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    ConnectionMetrics(String connectionId) {
+        this.connectionId = connectionId;
+    }
+
+    /**
+     * Counts a failed statement or borrow as a timeout or an error
+     */
+    public void recordFailure(SQLException e) {
+        if (e instanceof SQLTimeoutException) {
+            timeouts.increment();
+        } else {
+            errors.increment();
+        }
+    }
+
+    public void addRows(long count) {
+        rows.add(count);
+    }
+
+    public void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    public void recordCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    @Exported
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    /**
+     * @return connections lent out by the pool
+     */
+    @Exported
+    public int getActive() {
+        return DatabaseService.getActiveConnections(connectionId);
+    }
+
+    /**
+     * @return open connections waiting in the pool
+     */
+    @Exported
+    public int getIdle() {
+        return DatabaseService.getIdleConnections(connectionId);
+    }
+
+    /**
+     * @return steps waiting for a connection slot
+     */
+    @Exported
+    public int getWaiters() {
+        ConnectionAdmission admission = DatabaseService.getAdmission(connectionId);
+        return admission != null ? admission.getQueueDepth() : 0;
+    }
+
+    /**
+     * @return steps that gave up waiting for a connection slot
+     */
+    @Exported
+    public long getSlotTimeouts() {
+        ConnectionAdmission admission = DatabaseService.getAdmission(connectionId);
+        return admission != null ? admission.getTimeoutCount() : 0;
+    }
+
+    /**
+     * @return time steps waited for a connection slot
+     */
+    @Exported(inline = true)
+    public LatencyHistogram getSlotWait() {
+        return slotWait;
+    }
+
+    /**
+     * @return time spent borrowing a connection from the pool
+     */
+    @Exported(inline = true)
+    public LatencyHistogram getBorrow() {
+        return borrow;
+    }
+
+    /**
+     * @return time from sending a statement or batch until the database answered
+     */
+    @Exported(inline = true)
+    public LatencyHistogram getExecution() {
+        return execution;
+    }
+
+    /**
+     * @return time spent reading the rows of a result
+     */
+    @Exported(inline = true)
+    public LatencyHistogram getFetch() {
+        return fetch;
+    }
+
+    @Exported
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Exported
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return statements that exceeded their query timeout
+     */
+    @Exported
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return {@code cacheTtl} queries answered from the result cache
+     */
+    @Exported
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return {@code cacheTtl} queries that had to run against the database
+     */
+    @Exported
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+}
@@ -0,0 +1,117 @@
+package io.jenkins.plugins.sql.metrics;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Lock-free histogram of durations in milliseconds, with fixed buckets from 1 ms to 5 minutes. Percentiles are
+ * reported as the upper bound of the bucket they fall into.
+ */
+@ExportedBean
+public final class LatencyHistogram {
+    private static final long[] BOUNDS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000,
+            300000};
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    private volatile LongConsumer mirror;
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long millis) {
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        sum.add(millis);
+        max.accumulate(millis);
+        LongConsumer current = mirror;
+        if (current != null) {
+            current.accept(millis);
+        }
+    }
+
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    /**
+     * Also passes every recorded value to the given consumer, e.g. a Metrics plugin histogram
+     */
+    void mirrorTo(LongConsumer consumer) {
+        this.mirror = consumer;
+    }
+
+    @Exported
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Exported
+    public long getMean() {
+        long n = count.sum();
+        return n > 0 ? sum.sum() / n : 0;
+    }
+
+    @Exported
+    public long getMax() {
+        return max.get();
+    }
+
+    @Exported
+    public long getP50() {
+        return percentile(0.50);
+    }
+
+    @Exported
+    public long getP95() {
+        return percentile(0.95);
+    }
+
+    @Exported
+    public long getP99() {
+        return percentile(0.99);
+    }
+
+    /**
+     * @return number of values per bucket, keyed by the bucket's upper bound ("+Inf" for the last one)
+     */
+    @Exported
+    public Map<String, Long> getBuckets() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < buckets.length; i++) {
+            result.put(i < BOUNDS.length ? String.valueOf(BOUNDS[i]) : "+Inf", buckets[i].sum());
+        }
+        return result;
+    }
+
+    long percentile(double quantile) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                return BOUNDS[i];
+            }
+        }
+        return max.get();
+    }
+}
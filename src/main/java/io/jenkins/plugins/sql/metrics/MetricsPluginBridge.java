@@ -0,0 +1,42 @@
+package io.jenkins.plugins.sql.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import jenkins.metrics.api.Metrics;
+
+/**
+ * Registers connection metrics with the Metrics plugin. Only loaded when that plugin is installed.
+ */
+final class MetricsPluginBridge {
+
+    private MetricsPluginBridge() {
+        // Utility class
+    }
+
+    static void register(ConnectionMetrics metrics) {
+        MetricRegistry registry = Metrics.metricRegistry();
+        String prefix = MetricRegistry.name("sql", "connection", metrics.getConnectionId());
+
+        register(registry, MetricRegistry.name(prefix, "pool", "active"), (Gauge<Integer>) metrics::getActive);
+        register(registry, MetricRegistry.name(prefix, "pool", "idle"), (Gauge<Integer>) metrics::getIdle);
+        register(registry, MetricRegistry.name(prefix, "pool", "waiters"), (Gauge<Integer>) metrics::getWaiters);
+        register(registry, MetricRegistry.name(prefix, "slot", "timeouts"), (Gauge<Long>) metrics::getSlotTimeouts);
+        register(registry, MetricRegistry.name(prefix, "rows"), (Gauge<Long>) metrics::getRows);
+        register(registry, MetricRegistry.name(prefix, "errors"), (Gauge<Long>) metrics::getErrors);
+        register(registry, MetricRegistry.name(prefix, "timeouts"), (Gauge<Long>) metrics::getTimeouts);
+        register(registry, MetricRegistry.name(prefix, "cache", "hits"), (Gauge<Long>) metrics::getCacheHits);
+        register(registry, MetricRegistry.name(prefix, "cache", "misses"), (Gauge<Long>) metrics::getCacheMisses);
+
+        metrics.getSlotWait().mirrorTo(registry.histogram(MetricRegistry.name(prefix, "slot", "wait"))::update);
+        metrics.getBorrow().mirrorTo(registry.histogram(MetricRegistry.name(prefix, "borrow"))::update);
+        metrics.getExecution().mirrorTo(registry.histogram(MetricRegistry.name(prefix, "execution"))::update);
+        metrics.getFetch().mirrorTo(registry.histogram(MetricRegistry.name(prefix, "fetch"))::update);
+    }
+
+    private static void register(MetricRegistry registry, String name, Metric metric) {
+        // replaces the metric of a previous registration, e.g. after the plugin was reloaded
+        registry.remove(name);
+        registry.register(name, metric);
+    }
+}
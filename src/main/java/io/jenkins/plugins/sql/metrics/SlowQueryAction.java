@@ -0,0 +1,106 @@
+package io.jenkins.plugins.sql.metrics;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import io.jenkins.plugins.sql.model.SlowStatement;
+import jenkins.model.RunAction2;
+import jenkins.util.SystemProperties;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Report of the slowest SQL statements of a build and their execution plans, at {@code sql-slow-statements} of the
+ * build and as JSON at {@code sql-slow-statements/api/json}. Only the {@value #DEFAULT_MAX_STATEMENTS} slowest are
+ * kept, unless set otherwise with the system property {@code io.jenkins.plugins.sql.metrics.SlowQueryAction.maxStatements}.
+ */
+@ExportedBean
+public class SlowQueryAction implements RunAction2 {
+    private static final Logger LOGGER = Logger.getLogger(SlowQueryAction.class.getName());
+    static final int DEFAULT_MAX_STATEMENTS = 10;
+    private static final int MAX_STATEMENTS = SystemProperties.getInteger(
+            SlowQueryAction.class.getName() + ".maxStatements", DEFAULT_MAX_STATEMENTS);
+    private static final Object LOCK = new Object();
+
+    private final List<SlowStatement> statements = new ArrayList<>();
+    private transient Run<?, ?> run;
+
+    /**
+     * Adds slow statements to the report of a build, which is created with the first of them.
+     */
+    public static void record(Run<?, ?> run, Collection<SlowStatement> slow) {
+        if (slow.isEmpty()) {
+            return;
+        }
+        SlowQueryAction action;
+        synchronized (LOCK) {
+            action = run.getAction(SlowQueryAction.class);
+            if (action == null) {
+                action = new SlowQueryAction();
+                run.addAction(action);
+            }
+        }
+        action.add(slow);
+        try {
+            run.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the slow statements of " + run, e);
+        }
+    }
+
+    private synchronized void add(Collection<SlowStatement> slow) {
+        statements.addAll(slow);
+        statements.sort(Comparator.comparingLong(SlowStatement::getDurationMillis).reversed());
+        if (statements.size() > MAX_STATEMENTS) {
+            statements.subList(MAX_STATEMENTS, statements.size()).clear();
+        }
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Slow SQL Statements";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "sql-slow-statements";
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * @return the slowest statements of the build, slowest first
+     */
+    @Exported(inline = true)
+    public synchronized List<SlowStatement> getStatements() {
+        return new ArrayList<>(statements);
+    }
+}
@@ -0,0 +1,34 @@
+package io.jenkins.plugins.sql.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import io.jenkins.plugins.sql.service.ResultCache;
+import io.jenkins.plugins.sql.service.SqlExecutor;
+import jenkins.metrics.api.MetricProvider;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exports the SQL execution thread pool and the result cache through the Metrics plugin. Connection metrics are registered by
+ * {@link MetricsPluginBridge} as connections are used.
+ */
+@Extension(optional = true)
+public class SqlMetricProvider extends MetricProvider {
+
+    @Nonnull
+    @Override
+    public MetricSet getMetricSet() {
+        Map<String, Metric> metrics = new HashMap<>();
+        metrics.put("sql.executor.threads", (Gauge<Integer>) SqlExecutor::getMaxThreads);
+        metrics.put("sql.executor.active", (Gauge<Integer>) SqlExecutor::getActiveCount);
+        metrics.put("sql.executor.queued", (Gauge<Integer>) SqlExecutor::getQueuedCount);
+        metrics.put("sql.cache.entries", (Gauge<Integer>) () -> ResultCache.get().getEntryCount());
+        metrics.put("sql.cache.bytes", (Gauge<Long>) () -> ResultCache.get().getBytes());
+        metrics.put("sql.cache.evictions", (Gauge<Long>) () -> ResultCache.get().getEvictionCount());
+        return () -> metrics;
+    }
+}
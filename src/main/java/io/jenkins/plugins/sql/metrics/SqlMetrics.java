@@ -0,0 +1,47 @@
+package io.jenkins.plugins.sql.metrics;
+
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Metrics of every database connection used since Jenkins started. Exported as JSON by {@link SqlMetricsAction},
+ * and through the Metrics plugin when it is installed.
+ * <p>
+ * Queries run with {@code runOnAgent} record their statement timings in the agent JVM, where they are not exported.
+ */
+public final class SqlMetrics {
+    private static final ConcurrentMap<String, ConnectionMetrics> connections = new ConcurrentHashMap<>();
+
+    private SqlMetrics() {
+        // Utility class
+    }
+
+    public static ConnectionMetrics forConnection(String connectionId) {
+        ConnectionMetrics metrics = connections.get(connectionId);
+        if (metrics != null) {
+            return metrics;
+        }
+        return connections.computeIfAbsent(connectionId, id -> {
+            ConnectionMetrics created = new ConnectionMetrics(id);
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            if (jenkins != null && jenkins.getPlugin("metrics") != null) {
+                MetricsPluginBridge.register(created);
+            }
+            return created;
+        });
+    }
+
+    /**
+     * @return metrics of every connection, ordered by connection id
+     */
+    public static List<ConnectionMetrics> all() {
+        List<ConnectionMetrics> all = new ArrayList<>(connections.values());
+        all.sort(Comparator.comparing(ConnectionMetrics::getConnectionId));
+        return all;
+    }
+}
@@ -0,0 +1,83 @@
+package io.jenkins.plugins.sql.metrics;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.RootAction;
+import io.jenkins.plugins.sql.service.ResultCache;
+import io.jenkins.plugins.sql.service.SqlExecutor;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.List;
+
+/**
+ * Serves the SQL metrics as JSON at {@code /sql-metrics/api/json} to users who can read the system configuration.
+ */
+@Extension
+@ExportedBean
+public class SqlMetricsAction implements RootAction {
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "SQL Metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "sql-metrics";
+    }
+
+    public Api getApi() {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        return new Api(this);
+    }
+
+    @Exported(inline = true)
+    public List<ConnectionMetrics> getConnections() {
+        return SqlMetrics.all();
+    }
+
+    @Exported
+    public int getExecutorThreads() {
+        return SqlExecutor.getMaxThreads();
+    }
+
+    @Exported
+    public int getExecutorActive() {
+        return SqlExecutor.getActiveCount();
+    }
+
+    @Exported
+    public int getExecutorQueued() {
+        return SqlExecutor.getQueuedCount();
+    }
+
+    @Exported
+    public int getCacheEntries() {
+        return ResultCache.get().getEntryCount();
+    }
+
+    /**
+     * @return estimated memory held by cached query results
+     */
+    @Exported
+    public long getCacheBytes() {
+        return ResultCache.get().getBytes();
+    }
+
+    @Exported
+    public long getCacheMaxBytes() {
+        return ResultCache.get().getMaxBytes();
+    }
+
+    @Exported
+    public long getCacheEvictions() {
+        return ResultCache.get().getEvictionCount();
+    }
+}
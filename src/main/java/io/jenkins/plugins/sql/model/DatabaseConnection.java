@@ -12,6 +12,8 @@ import java.util.Objects;
  */
 public class DatabaseConnection implements Serializable {
     private static final long serialVersionUID = 1L;
+    public static final String QUEUE_SCOPE_JOB = "job";
+    public static final String QUEUE_SCOPE_FOLDER = "folder";
     
     private final String uuid;
     private final String name;
@@ -22,6 +24,19 @@ public class DatabaseConnection implements Serializable {
     private int maxConnections = 10;
     private int connectionTimeout = 30;
     private boolean testOnBorrow = true;
+    // boxed so that configurations saved before these settings existed get the defaults
+    private Boolean poolPreparedStatements;
+    private Integer maxOpenPreparedStatements;
+    private Integer maxWaitSeconds;
+    private String queueScope;
+    private String poolProvider;
+    private Integer minIdle;
+    private Integer maxIdle;
+    private Integer maxLifetimeSeconds;
+    private Integer idleTimeoutSeconds;
+    private Integer leakDetectionSeconds;
+    private String validationQuery;
+    private boolean prewarm;
     
     // Constructor for programmatic creation
     @DataBoundConstructor
@@ -76,6 +91,151 @@ public class DatabaseConnection implements Serializable {
         return testOnBorrow;
     }
 
+    public boolean isPoolPreparedStatements() {
+        return poolPreparedStatements == null || poolPreparedStatements;
+    }
+
+    @DataBoundSetter
+    public void setPoolPreparedStatements(boolean poolPreparedStatements) {
+        this.poolPreparedStatements = poolPreparedStatements;
+    }
+
+    /**
+     * @return maximum number of pooled prepared statements per connection, negative for no limit
+     */
+    public int getMaxOpenPreparedStatements() {
+        return maxOpenPreparedStatements != null ? maxOpenPreparedStatements : 100;
+    }
+
+    @DataBoundSetter
+    public void setMaxOpenPreparedStatements(int maxOpenPreparedStatements) {
+        this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+    }
+
+    /**
+     * @return how long a step waits for a free connection slot before it fails, 0 to wait without limit
+     */
+    public int getMaxWaitSeconds() {
+        return maxWaitSeconds != null ? maxWaitSeconds : 300;
+    }
+
+    @DataBoundSetter
+    public void setMaxWaitSeconds(int maxWaitSeconds) {
+        this.maxWaitSeconds = maxWaitSeconds;
+    }
+
+    /**
+     * @return {@code job} to share connection slots fairly between jobs, {@code folder} to share them between
+     * top-level folders
+     */
+    public String getQueueScope() {
+        return queueScope != null ? queueScope : QUEUE_SCOPE_JOB;
+    }
+
+    @DataBoundSetter
+    public void setQueueScope(String queueScope) {
+        this.queueScope = queueScope;
+    }
+
+    /**
+     * @return id of the {@code PoolProvider} that builds the connection's pool
+     */
+    public String getPoolProvider() {
+        return poolProvider != null && !poolProvider.isEmpty() ? poolProvider : "dbcp2";
+    }
+
+    @DataBoundSetter
+    public void setPoolProvider(String poolProvider) {
+        this.poolProvider = poolProvider;
+    }
+
+    /**
+     * @return number of idle connections the pool keeps open
+     */
+    public int getMinIdle() {
+        return minIdle != null ? minIdle : 1;
+    }
+
+    @DataBoundSetter
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * @return number of idle connections above which returned connections are closed, by default half of
+     * {@link #getMaxConnections()}
+     */
+    public int getMaxIdle() {
+        return maxIdle != null ? maxIdle : maxConnections / 2;
+    }
+
+    @DataBoundSetter
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return age after which a connection is replaced, 0 to keep connections forever
+     */
+    public int getMaxLifetimeSeconds() {
+        return maxLifetimeSeconds != null ? maxLifetimeSeconds : 1800;
+    }
+
+    @DataBoundSetter
+    public void setMaxLifetimeSeconds(int maxLifetimeSeconds) {
+        this.maxLifetimeSeconds = maxLifetimeSeconds;
+    }
+
+    /**
+     * @return time after which an idle connection above {@link #getMinIdle()} is closed, 0 to never close idle
+     * connections
+     */
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds != null ? idleTimeoutSeconds : 600;
+    }
+
+    @DataBoundSetter
+    public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+    }
+
+    /**
+     * @return time after which a connection that was not returned is reported as leaked, 0 to disable
+     */
+    public int getLeakDetectionSeconds() {
+        return leakDetectionSeconds != null ? leakDetectionSeconds : 0;
+    }
+
+    @DataBoundSetter
+    public void setLeakDetectionSeconds(int leakDetectionSeconds) {
+        this.leakDetectionSeconds = leakDetectionSeconds;
+    }
+
+    /**
+     * @return query that validates connections, empty to validate with {@code Connection.isValid}
+     */
+    public String getValidationQuery() {
+        return validationQuery != null ? validationQuery : "";
+    }
+
+    @DataBoundSetter
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * @return whether the pool opens {@link #getMinIdle()} connections in the background when Jenkins starts and
+     * when the configuration is saved, instead of on the first query
+     */
+    public boolean isPrewarm() {
+        return prewarm;
+    }
+
+    @DataBoundSetter
+    public void setPrewarm(boolean prewarm) {
+        this.prewarm = prewarm;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -1,5 +1,12 @@
 package io.jenkins.plugins.sql.model;
 
+import javax.annotation.CheckForNull;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
 /**
  * Predefined database driver configurations
  */
@@ -10,6 +17,13 @@ public enum DatabaseDriver {
     ORACLE("Oracle", "oracle.jdbc.driver.OracleDriver", "jdbc:oracle:thin:@localhost:1521:xe"),
     H2("H2", "org.h2.Driver", "jdbc:h2:mem:testdb");
     
+    private static final Pattern SQLSERVER_BLOCK = Pattern.compile(
+            "(CREATE\\s+(OR\\s+ALTER\\s+)?|ALTER\\s+)(PROCEDURE|PROC|FUNCTION|TRIGGER)\\b.*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern ORACLE_BLOCK = Pattern.compile(
+            "(BEGIN|DECLARE|CREATE\\s+(OR\\s+REPLACE\\s+)?((NON)?EDITIONABLE\\s+)?(PROCEDURE|FUNCTION|PACKAGE|TRIGGER|TYPE\\s+BODY))\\b.*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    
     private final String displayName;
     private final String driverClass;
     private final String urlTemplate;
@@ -31,5 +45,173 @@ public enum DatabaseDriver {
     public String getUrlTemplate() {
         return urlTemplate;
     }
-
+    
+    /**
+     * @return the JDBC URL prefix of this driver, e.g. {@code jdbc:mysql:}
+     */
+    public String getUrlPrefix() {
+        return urlTemplate.substring(0, urlTemplate.indexOf(':', "jdbc:".length()) + 1);
+    }
+    
+    /**
+     * Fetch size that makes the driver stream rows from the server instead of buffering the whole result,
+     * or 0 to keep the driver default.
+     */
+    public int getStreamingFetchSize() {
+        switch (this) {
+            case MYSQL:
+                // Connector/J only streams row by row with this marker value
+                return Integer.MIN_VALUE;
+            case POSTGRESQL:
+                return 1000;
+            case ORACLE:
+                return 500;
+            default:
+                return 0;
+        }
+    }
+    
+    /**
+     * @param fetchSize fetch size requested by the user, 0 for the driver's streaming default
+     * @return the fetch size to set on the statement, 0 to leave it unset
+     */
+    public int resolveFetchSize(int fetchSize) {
+        // a positive size on MySQL needs useCursorFetch=true in the URL to take effect
+        return fetchSize > 0 ? fetchSize : getStreamingFetchSize();
+    }
+    
+    /**
+     * PostgreSQL only fetches in batches through a server-side cursor, which requires auto-commit to be off.
+     */
+    public boolean isCursorFetchTransactional() {
+        return this == POSTGRESQL;
+    }
+    
+    /**
+     * Connection properties that let the driver rewrite JDBC batches into multi-row statements
+     */
+    public Map<String, String> getBatchRewriteProperties() {
+        switch (this) {
+            case MYSQL:
+                return Collections.singletonMap("rewriteBatchedStatements", "true");
+            case POSTGRESQL:
+                return Collections.singletonMap("reWriteBatchedInserts", "true");
+            default:
+                return Collections.emptyMap();
+        }
+    }
+    
+    /**
+     * Whether string literals may escape characters with a backslash
+     */
+    public boolean isBackslashEscapes() {
+        return this == MYSQL;
+    }
+    
+    /**
+     * Whether {@code #} starts a line comment
+     */
+    public boolean isHashComments() {
+        return this == MYSQL;
+    }
+    
+    /**
+     * Whether block comments can be nested
+     */
+    public boolean isNestedComments() {
+        return this == POSTGRESQL;
+    }
+    
+    /**
+     * Whether {@code $tag$ ... $tag$} quotes a string, as in PostgreSQL function bodies
+     */
+    public boolean isDollarQuoting() {
+        return this == POSTGRESQL || this == H2;
+    }
+    
+    /**
+     * Whether scripts can change the statement delimiter with a {@code DELIMITER} line, as in the MySQL client
+     */
+    public boolean isDelimiterCommand() {
+        return this == MYSQL;
+    }
+    
+    /**
+     * @return the command that ends a statement on a line of its own ({@code GO}, {@code /}), or {@code null}
+     */
+    @CheckForNull
+    public String getBatchSeparator() {
+        switch (this) {
+            case SQLSERVER:
+                return "GO";
+            case ORACLE:
+                return "/";
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Procedural blocks contain semicolons of their own and only end at the {@linkplain #getBatchSeparator() batch separator}.
+     *
+     * @return pattern matching the start of such a block, or {@code null} if the dialect has none
+     */
+    @CheckForNull
+    public Pattern getProceduralBlockPattern() {
+        switch (this) {
+            case SQLSERVER:
+                return SQLSERVER_BLOCK;
+            case ORACLE:
+                return ORACLE_BLOCK;
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Statements that show the execution plan of a statement without running it, to be run in order on one
+     * connection. The plan is the text of the result sets they return.
+     */
+    public List<String> getExplainStatements(String sql) {
+        switch (this) {
+            case SQLSERVER:
+                // SHOWPLAN_TEXT has to be the only statement of its batch
+                return Arrays.asList("SET SHOWPLAN_TEXT ON", sql);
+            case ORACLE:
+                return Arrays.asList("EXPLAIN PLAN FOR " + sql,
+                        "SELECT PLAN_TABLE_OUTPUT FROM TABLE(DBMS_XPLAN.DISPLAY())");
+            default:
+                return Collections.singletonList("EXPLAIN " + sql);
+        }
+    }
+    
+    /**
+     * @return the statement that puts the session back into executing statements after
+     * {@link #getExplainStatements}, also if they failed, or {@code null} if there is nothing to undo
+     */
+    @CheckForNull
+    public String getExplainReset() {
+        return this == SQLSERVER ? "SET SHOWPLAN_TEXT OFF" : null;
+    }
+    
+    /**
+     * Resolves the predefined driver of a connection, by driver class first and JDBC URL prefix second.
+     */
+    @CheckForNull
+    public static DatabaseDriver forConnection(DatabaseConnection connection) {
+        for (DatabaseDriver driver : values()) {
+            if (driver.driverClass.equals(connection.getDriverClass())) {
+                return driver;
+            }
+        }
+        String url = connection.getUrl();
+        if (url != null) {
+            for (DatabaseDriver driver : values()) {
+                if (url.startsWith(driver.getUrlPrefix())) {
+                    return driver;
+                }
+            }
+        }
+        return null;
+    }
 }
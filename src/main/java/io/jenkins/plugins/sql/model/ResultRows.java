@@ -0,0 +1,167 @@
+package io.jenkins.plugins.sql.model;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Rows of a {@link SqlResult} as returned to a pipeline, a list of maps that can be changed like the
+ * {@code ArrayList} of {@code LinkedHashMap}s returned before results were columnar.
+ * <p>
+ * Rows are read from the result until they are changed. Each row is handed out once, so that changes to it stay
+ * visible through the list, and the first change to the list itself copies the rows into a list of its own. The
+ * result is never changed, so it can be shared with other builds by the result cache. Only the rows that were changed
+ * are saved with the pipeline state next to the columnar result.
+ */
+public class ResultRows extends AbstractList<Map<String, Object>> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final SqlResult result;
+    private transient Map<String, Object>[] rows;
+    @CheckForNull
+    private List<Map<String, Object>> copy;
+
+    public ResultRows(SqlResult result) {
+        this.result = result;
+    }
+
+    /**
+     * @return the result the rows were read from, without any of the changes made to them
+     */
+    public SqlResult getResult() {
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> get(int index) {
+        if (copy != null) {
+            return copy.get(index);
+        }
+        if (index < 0 || index >= result.size()) {
+            throw new IndexOutOfBoundsException("Row " + index + " out of " + result.size());
+        }
+        if (rows == null) {
+            rows = new Map[result.size()];
+        }
+        Map<String, Object> row = rows[index];
+        if (row == null) {
+            row = result.get(index);
+            rows[index] = row;
+        }
+        return row;
+    }
+
+    @Override
+    public int size() {
+        return copy != null ? copy.size() : result.size();
+    }
+
+    @Override
+    public Map<String, Object> set(int index, Map<String, Object> row) {
+        return rows().set(index, row);
+    }
+
+    @Override
+    public void add(int index, Map<String, Object> row) {
+        rows().add(index, row);
+        modCount++;
+    }
+
+    @Override
+    public Map<String, Object> remove(int index) {
+        Map<String, Object> removed = rows().remove(index);
+        modCount++;
+        return removed;
+    }
+
+    private List<Map<String, Object>> rows() {
+        if (copy == null) {
+            List<Map<String, Object>> all = new ArrayList<>(result.size());
+            for (int i = 0; i < result.size(); i++) {
+                all.add(get(i));
+            }
+            copy = all;
+            rows = null;
+        }
+        return copy;
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> iterator() {
+        // CPS keeps iterators in the program state, so they have to be serializable
+        return new RowIterator(this);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        Map<Integer, Map<String, Object>> changed = new HashMap<>();
+        if (copy == null && rows != null) {
+            for (int i = 0; i < rows.length; i++) {
+                Map<String, Object> row = rows[i];
+                if (row != null && !(row instanceof SqlResult.Row && !((SqlResult.Row) row).isChanged())) {
+                    changed.put(i, row);
+                }
+            }
+        }
+        out.writeObject(changed);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        Map<Integer, Map<String, Object>> changed = (Map<Integer, Map<String, Object>>) in.readObject();
+        if (!changed.isEmpty()) {
+            rows = new Map[result.size()];
+            for (Map.Entry<Integer, Map<String, Object>> row : changed.entrySet()) {
+                rows[row.getKey()] = row.getValue();
+            }
+        }
+    }
+
+    public static final class RowIterator implements Iterator<Map<String, Object>>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final ResultRows rows;
+        private int next;
+        private int last = -1;
+
+        RowIterator(ResultRows rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < rows.size();
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return rows.get(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            rows.remove(last);
+            next = last;
+            last = -1;
+        }
+    }
+}
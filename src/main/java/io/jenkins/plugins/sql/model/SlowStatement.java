@@ -0,0 +1,65 @@
+package io.jenkins.plugins.sql.model;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.CheckForNull;
+import java.io.Serializable;
+
+/**
+ * A statement of a build that took at least the {@code slowQueryMillis} of its step, with the plan the database
+ * chose for it
+ */
+@ExportedBean
+public final class SlowStatement implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int MAX_SQL_LENGTH = 10_000;
+
+    private final String connectionId;
+    private final int statement;
+    private final String sql;
+    private final long durationMillis;
+    @CheckForNull
+    private final String plan;
+
+    /**
+     * @param statement position of the statement in its script, starting at 1
+     * @param plan      execution plan, or {@code null} if it could not be captured
+     */
+    public SlowStatement(String connectionId, int statement, String sql, long durationMillis, @CheckForNull String plan) {
+        this.connectionId = connectionId;
+        this.statement = statement;
+        this.sql = sql.length() > MAX_SQL_LENGTH ? sql.substring(0, MAX_SQL_LENGTH) + "..." : sql;
+        this.durationMillis = durationMillis;
+        this.plan = plan;
+    }
+
+    @Exported
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    @Exported
+    public int getStatement() {
+        return statement;
+    }
+
+    @Exported
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return time to execute the statement and fetch its rows
+     */
+    @Exported
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @CheckForNull
+    @Exported
+    public String getPlan() {
+        return plan;
+    }
+}
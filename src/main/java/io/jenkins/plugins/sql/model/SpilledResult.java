@@ -0,0 +1,227 @@
+package io.jenkins.plugins.sql.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Query result kept in a file instead of memory, read back lazily.
+ * <p>
+ * The file holds the rows in compressed blocks of up to {@value #BLOCK_ROWS} rows, each a serialized
+ * {@link SqlResult}. The handle itself only holds the location of the file and of its blocks, so it stays small in
+ * the program state of a pipeline however many rows the result has. At most one block is held in memory at a time.
+ * <p>
+ * Rows are returned as copies that do not refer to the block they were read from. {@link #subList(int, int)} and
+ * {@link #page(int, int)} read a range of rows in one pass.
+ */
+public class SpilledResult extends AbstractList<Map<String, Object>> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int BLOCK_ROWS = 1024;
+
+    private final File file;
+    private final int size;
+    /**
+     * Index of the first row of each block, ascending
+     */
+    private final int[] blockStarts;
+    private final long[] blockOffsets;
+    private transient int cachedBlock = -1;
+    private transient SqlResult cached;
+
+    private SpilledResult(File file, int size, int[] blockStarts, long[] blockOffsets) {
+        this.file = file;
+        this.size = size;
+        this.blockStarts = blockStarts;
+        this.blockOffsets = blockOffsets;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Map<String, Object> get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+        }
+        int block = Arrays.binarySearch(blockStarts, row);
+        if (block < 0) {
+            block = -block - 2;
+        }
+        SqlResult rows = block(block);
+        return new LinkedHashMap<>(rows.get(row - blockStarts[block]));
+    }
+
+    /**
+     * @return up to {@code count} rows starting at {@code offset}, fewer at the end of the result
+     */
+    public List<Map<String, Object>> page(int offset, int count) {
+        if (offset < 0 || count < 0) {
+            throw new IndexOutOfBoundsException("Page of " + count + " row(s) at " + offset);
+        }
+        int end = (int) Math.min(size, (long) offset + count);
+        List<Map<String, Object>> page = new ArrayList<>(Math.max(0, end - offset));
+        for (int row = offset; row < end; row++) {
+            page.add(get(row));
+        }
+        return page;
+    }
+
+    @Override
+    public List<Map<String, Object>> subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Rows " + fromIndex + " to " + toIndex + " out of " + size);
+        }
+        return page(fromIndex, toIndex - fromIndex);
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> iterator() {
+        // CPS keeps iterators in the program state, so they have to be serializable
+        return new RowIterator(this);
+    }
+
+    /**
+     * Describes the result without reading it, unlike the string of a list
+     */
+    @Override
+    public String toString() {
+        return "SpilledResult[" + size + " row(s) in " + file + "]";
+    }
+
+    private synchronized SqlResult block(int block) {
+        if (block != cachedBlock) {
+            cached = readBlock(block);
+            cachedBlock = block;
+        }
+        return cached;
+    }
+
+    private SqlResult readBlock(int block) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(blockOffsets[block]);
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            try (ObjectInputStream objects = new ObjectInputStream(
+                    new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+                return (SqlResult) objects.readObject();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read spilled result from " + file, e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Failed to read spilled result from " + file, e);
+        }
+    }
+
+    public static final class RowIterator implements Iterator<Map<String, Object>>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final SpilledResult result;
+        private int next;
+
+        RowIterator(SpilledResult result) {
+            this.result = result;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < result.size;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return result.get(next++);
+        }
+    }
+
+    /**
+     * Writes the blocks of a spilled result. The file is deleted when the writer is closed before
+     * {@link #finish()}, so that a failed query leaves nothing behind.
+     */
+    public static final class Writer implements Closeable {
+        private final File file;
+        private final DataOutputStream out;
+        private final List<Integer> blockStarts = new ArrayList<>();
+        private final List<Long> blockOffsets = new ArrayList<>();
+        private long offset;
+        private int rows;
+        private boolean finished;
+
+        /**
+         * Creates a new file in the given directory, which is created if needed.
+         */
+        public Writer(File directory) throws IOException {
+            Files.createDirectories(directory.toPath());
+            this.file = File.createTempFile("result-", ".bin", directory);
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        }
+
+        /**
+         * Appends the rows of the given result, which should hold at most {@value #BLOCK_ROWS} rows.
+         */
+        public void append(SqlResult block) throws IOException {
+            if (block.isEmpty()) {
+                return;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(new DeflaterOutputStream(bytes))) {
+                objects.writeObject(block);
+            }
+            blockStarts.add(rows);
+            blockOffsets.add(offset);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            offset += 4 + bytes.size();
+            rows = Math.addExact(rows, block.size());
+        }
+
+        /**
+         * @return the handle of the rows appended so far
+         */
+        public SpilledResult finish() throws IOException {
+            out.close();
+            finished = true;
+            int[] starts = new int[blockStarts.size()];
+            long[] offsets = new long[blockOffsets.size()];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = blockStarts.get(i);
+                offsets[i] = blockOffsets.get(i);
+            }
+            return new SpilledResult(file, rows, starts, offsets);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+}
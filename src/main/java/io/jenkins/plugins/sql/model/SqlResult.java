@@ -0,0 +1,679 @@
+package io.jenkins.plugins.sql.model;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Columnar, read-only representation of a query result.
+ * <p>
+ * Column names and types are stored once and values are kept in one array per column, using primitive
+ * arrays for integer, floating point and boolean columns. From a pipeline the result still behaves as a
+ * list of maps: each element is a lightweight view over one row that keeps a reference to the whole result, and is
+ * serialized as a copy of its own values. A row can be changed like any map, which copies its values first and leaves
+ * the result as it was; {@link ResultRows} does the same for the list. When several columns share a name, the row
+ * holds the last of them, as a {@link LinkedHashMap} filled column by column would.
+ * <p>
+ * Large object columns can be handed to a {@link LobSink} instead, which stores their values elsewhere and leaves
+ * a reference to them, such as a file path, in the result.
+ */
+public class SqlResult extends AbstractList<Map<String, Object>> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private final Column[] columns;
+    private int size;
+    // results are shared between builds by the result cache, so the index is only published fully built
+    private transient volatile Keys keys;
+
+    public SqlResult(ResultSetMetaData metaData) throws SQLException {
+        this(metaData, null);
+    }
+
+    /**
+     * @param lobs receives the values of BLOB, CLOB and long binary or character columns, or {@code null} to read
+     *             them like any other column
+     */
+    public SqlResult(ResultSetMetaData metaData, @CheckForNull LobSink lobs) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        this.columnNames = new String[columnCount];
+        this.columnTypes = new int[columnCount];
+        this.columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = metaData.getColumnName(i + 1);
+            columnTypes[i] = metaData.getColumnType(i + 1);
+            if (lobs != null && isLob(columnTypes[i])) {
+                columns[i] = new LobColumn(lobs, columnNames[i], isBinary(columnTypes[i]));
+            } else {
+                columns[i] = Column.forClassName(metaData.getColumnClassName(i + 1));
+            }
+        }
+        this.keys = new Keys(columnNames);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        keys = new Keys(columnNames);
+    }
+
+    private static boolean isLob(int type) {
+        switch (type) {
+            case Types.BLOB:
+            case Types.LONGVARBINARY:
+            case Types.CLOB:
+            case Types.NCLOB:
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isBinary(int type) {
+        return type == Types.BLOB || type == Types.LONGVARBINARY;
+    }
+
+    private SqlResult(SqlResult template, int firstRow) {
+        this.columnNames = template.columnNames;
+        this.columnTypes = template.columnTypes;
+        this.keys = template.keys;
+        this.columns = new Column[template.columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = template.columns[i] instanceof LobColumn
+                    ? ((LobColumn) template.columns[i]).continuation(firstRow)
+                    : template.columns[i].empty();
+        }
+    }
+
+    /**
+     * @return an empty result with the same columns, without reading the result set metadata again
+     */
+    public SqlResult emptyCopy() {
+        return new SqlResult(this, 0);
+    }
+
+    /**
+     * @return an empty result with the same columns for the rows that follow the rows of this result, which its
+     * {@link LobSink} keeps numbering from where this result stopped
+     */
+    public SqlResult continuation() {
+        int firstRow = size;
+        for (Column column : columns) {
+            if (column instanceof LobColumn) {
+                firstRow += ((LobColumn) column).firstRow;
+                break;
+            }
+        }
+        return new SqlResult(this, firstRow);
+    }
+
+    /**
+     * Reads the current row of the result set into this result.
+     *
+     * @return index of the appended row
+     */
+    public int appendRow(ResultSet resultSet) throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].append(resultSet, i + 1, size);
+        }
+        return size++;
+    }
+
+    /**
+     * Releases the spare capacity of the column arrays once all rows have been read.
+     */
+    public void trimToSize() {
+        for (Column column : columns) {
+            column.trim(size);
+        }
+    }
+
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(Arrays.asList(columnNames));
+    }
+
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * @return the {@link java.sql.Types} code of the given zero-based column
+     */
+    public int getColumnType(int column) {
+        return columnTypes[column];
+    }
+
+    public Object getValue(int row, int column) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+        }
+        return columns[column].get(row);
+    }
+
+    int columnIndexOf(Object columnName) {
+        Integer i = keys.index.get(columnName);
+        return i != null ? i : -1;
+    }
+
+    /**
+     * @return rough number of bytes the result occupies in memory, for bounding caches
+     */
+    public long estimateBytes() {
+        long bytes = 64L + 48L * columnNames.length;
+        for (Column column : columns) {
+            bytes += column.estimateBytes(size);
+        }
+        return bytes;
+    }
+
+    @Override
+    public Map<String, Object> get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+        }
+        return new Row(this, row);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> iterator() {
+        // CPS keeps iterators in the program state, so they have to be serializable
+        return new RowIterator(this);
+    }
+
+    public static final class RowIterator implements Iterator<Map<String, Object>>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final SqlResult result;
+        private int next;
+
+        RowIterator(SqlResult result) {
+            this.result = result;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < result.size;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return new Row(result, next++);
+        }
+    }
+
+    /**
+     * Distinct column names in the order of their first occurrence, each mapped to the last column of that name
+     */
+    private static final class Keys {
+        private final String[] names;
+        private final int[] columns;
+        private final Map<String, Integer> index;
+
+        Keys(String[] columnNames) {
+            Map<String, Integer> index = new LinkedHashMap<>(columnNames.length * 2);
+            for (int i = 0; i < columnNames.length; i++) {
+                index.put(columnNames[i], i);
+            }
+            this.names = index.keySet().toArray(new String[0]);
+            this.columns = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                columns[i] = index.get(names[i]);
+            }
+            this.index = index;
+        }
+    }
+
+    /**
+     * Map view over a single row, copied into a map of its own on its first change
+     */
+    public static final class Row extends AbstractMap<String, Object> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final SqlResult result;
+        private final int row;
+        @CheckForNull
+        private LinkedHashMap<String, Object> copy;
+
+        Row(SqlResult result, int row) {
+            this.result = result;
+            this.row = row;
+        }
+
+        /**
+         * Keeps a row held by a pipeline variable from dragging the whole result into the program state.
+         */
+        private Object writeReplace() {
+            return new LinkedHashMap<>(this);
+        }
+
+        /**
+         * @return whether the row was changed since it was read from the result
+         */
+        boolean isChanged() {
+            return copy != null;
+        }
+
+        private Map<String, Object> own() {
+            if (copy == null) {
+                LinkedHashMap<String, Object> values = new LinkedHashMap<>(size() * 2);
+                for (Entry<String, Object> entry : entrySet()) {
+                    values.put(entry.getKey(), entry.getValue());
+                }
+                copy = values;
+            }
+            return copy;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (copy != null) {
+                return copy.get(key);
+            }
+            int column = result.columnIndexOf(key);
+            return column < 0 ? null : result.columns[column].get(row);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return copy != null ? copy.containsKey(key) : result.columnIndexOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return copy != null ? copy.size() : result.keys.names.length;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return own().put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return own().remove(key);
+        }
+
+        @Override
+        public void clear() {
+            own().clear();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            if (copy != null) {
+                return copy.entrySet();
+            }
+            Keys keys = result.keys;
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int key;
+                        private int last = -1;
+
+                        @Override
+                        public boolean hasNext() {
+                            return key < keys.names.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            last = key++;
+                            return new RowEntry(keys.names[last], result.columns[keys.columns[last]].get(row));
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (last < 0) {
+                                throw new IllegalStateException();
+                            }
+                            // only removals through this iterator change the copy, so the view still matches it
+                            own().remove(keys.names[last]);
+                            last = -1;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.names.length;
+                }
+            };
+        }
+
+        private final class RowEntry extends SimpleEntry<String, Object> {
+            private static final long serialVersionUID = 1L;
+
+            RowEntry(String key, Object value) {
+                super(key, value);
+            }
+
+            @Override
+            public Object setValue(Object value) {
+                own().put(getKey(), value);
+                return super.setValue(value);
+            }
+        }
+    }
+
+    /**
+     * Stores the values of large object columns outside of the result, typically streaming them to files.
+     */
+    public interface LobSink {
+        /**
+         * Stores the value of a large object column of the current row, reading it with
+         * {@link ResultSet#getBinaryStream(int)} or {@link ResultSet#getCharacterStream(int)}.
+         *
+         * @param row    zero-based index of the row in the result
+         * @param binary whether the column holds bytes rather than characters
+         * @return a reference to the stored value, or {@code null} if the value is SQL {@code NULL}
+         */
+        @CheckForNull
+        String write(ResultSet resultSet, int index, int row, String columnName, boolean binary) throws SQLException;
+    }
+
+    /**
+     * Storage for the values of one column
+     */
+    private abstract static class Column implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        static Column forClassName(String className) {
+            if (Long.class.getName().equals(className)) {
+                return new LongColumn();
+            } else if (Integer.class.getName().equals(className)) {
+                return new IntColumn();
+            } else if (Double.class.getName().equals(className)) {
+                return new DoubleColumn();
+            } else if (Boolean.class.getName().equals(className)) {
+                return new BooleanColumn();
+            }
+            return new ObjectColumn();
+        }
+
+        abstract Column empty();
+
+        abstract void append(ResultSet resultSet, int index, int row) throws SQLException;
+
+        abstract Object get(int row);
+
+        abstract void trim(int size);
+
+        abstract long estimateBytes(int size);
+
+        static int grow(int capacity) {
+            return Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+        }
+    }
+
+    private abstract static class PrimitiveColumn extends Column {
+        private static final long serialVersionUID = 1L;
+
+        private final BitSet nulls = new BitSet();
+
+        void setNull(int row, boolean isNull) {
+            if (isNull) {
+                nulls.set(row);
+            }
+        }
+
+        boolean isNull(int row) {
+            return nulls.get(row);
+        }
+    }
+
+    private static class LongColumn extends PrimitiveColumn {
+        private static final long serialVersionUID = 1L;
+
+        private long[] values = new long[0];
+
+        @Override
+        Column empty() {
+            return new LongColumn();
+        }
+
+        @Override
+        void append(ResultSet resultSet, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            values[row] = resultSet.getLong(index);
+            setNull(row, resultSet.wasNull());
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        long estimateBytes(int size) {
+            return 8L * size;
+        }
+    }
+
+    private static class IntColumn extends PrimitiveColumn {
+        private static final long serialVersionUID = 1L;
+
+        private int[] values = new int[0];
+
+        @Override
+        Column empty() {
+            return new IntColumn();
+        }
+
+        @Override
+        void append(ResultSet resultSet, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            values[row] = resultSet.getInt(index);
+            setNull(row, resultSet.wasNull());
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        long estimateBytes(int size) {
+            return 4L * size;
+        }
+    }
+
+    private static class DoubleColumn extends PrimitiveColumn {
+        private static final long serialVersionUID = 1L;
+
+        private double[] values = new double[0];
+
+        @Override
+        Column empty() {
+            return new DoubleColumn();
+        }
+
+        @Override
+        void append(ResultSet resultSet, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            values[row] = resultSet.getDouble(index);
+            setNull(row, resultSet.wasNull());
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        long estimateBytes(int size) {
+            return 8L * size;
+        }
+    }
+
+    private static class BooleanColumn extends PrimitiveColumn {
+        private static final long serialVersionUID = 1L;
+
+        private final BitSet values = new BitSet();
+
+        @Override
+        Column empty() {
+            return new BooleanColumn();
+        }
+
+        @Override
+        void append(ResultSet resultSet, int index, int row) throws SQLException {
+            values.set(row, resultSet.getBoolean(index));
+            setNull(row, resultSet.wasNull());
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values.get(row);
+        }
+
+        @Override
+        void trim(int size) {
+            // BitSet grows by words, nothing worth releasing
+        }
+
+        @Override
+        long estimateBytes(int size) {
+            return size / 8 + 8;
+        }
+    }
+
+    private static class ObjectColumn extends Column {
+        private static final long serialVersionUID = 1L;
+
+        private Object[] values = new Object[0];
+
+        @Override
+        Column empty() {
+            return new ObjectColumn();
+        }
+
+        @Override
+        void append(ResultSet resultSet, int index, int row) throws SQLException {
+            set(row, resultSet.getObject(index));
+        }
+
+        void set(int row, @CheckForNull Object value) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            values[row] = value;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        long estimateBytes(int size) {
+            long bytes = 8L * size;
+            for (int row = 0; row < size; row++) {
+                Object value = values[row];
+                if (value instanceof CharSequence) {
+                    bytes += 40 + 2L * ((CharSequence) value).length();
+                } else if (value instanceof byte[]) {
+                    bytes += 16 + ((byte[]) value).length;
+                } else if (value != null) {
+                    bytes += 32;
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Column whose values are stored by a {@link LobSink}, keeping only the references it returns
+     */
+    private static class LobColumn extends ObjectColumn {
+        private static final long serialVersionUID = 1L;
+
+        private final transient LobSink sink;
+        private final String name;
+        private final boolean binary;
+        private final int firstRow;
+
+        LobColumn(LobSink sink, String name, boolean binary) {
+            this(sink, name, binary, 0);
+        }
+
+        private LobColumn(LobSink sink, String name, boolean binary, int firstRow) {
+            this.sink = sink;
+            this.name = name;
+            this.binary = binary;
+            this.firstRow = firstRow;
+        }
+
+        @Override
+        Column empty() {
+            return new LobColumn(sink, name, binary);
+        }
+
+        LobColumn continuation(int firstRow) {
+            return new LobColumn(sink, name, binary, firstRow);
+        }
+
+        @Override
+        void append(ResultSet resultSet, int index, int row) throws SQLException {
+            set(row, sink.write(resultSet, index, firstRow + row, name, binary));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package io.jenkins.plugins.sql.service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Connection pools in the JVM of an agent that runs queries for its workspace. The controller sends the
+ * connection settings with every call; a pool is replaced when settings from a later configuration no longer
+ * match the ones it was built from, and drains like the pools on the controller.
+ */
+public final class AgentDataSources {
+    private static final ConcurrentMap<String, PoolVersion> pools = new ConcurrentHashMap<>();
+
+    private AgentDataSources() {
+        // Utility class
+    }
+
+    public static Connection getConnection(ConnectionSpec spec) throws SQLException {
+        return PoolVersion.getConnection(pools, spec);
+    }
+}
@@ -0,0 +1,285 @@
+package io.jenkins.plugins.sql.service;
+
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Streams records into a table, through the driver's native bulk path where available
+ * (PostgreSQL {@code COPY}, SQL Server bulk copy) and through batched prepared INSERTs otherwise.
+ */
+public class BulkLoader {
+    private static final Logger LOGGER = Logger.getLogger(BulkLoader.class.getName());
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*|\"[^\"]+\"|\\[[^\\]]+\\]|`[^`]+`");
+
+    private final String table;
+    private final int batchSize;
+    private final int commitEvery;
+    private final boolean nativeBulk;
+    private final PrintStream logger;
+    @CheckForNull
+    private volatile Statement running;
+    @CheckForNull
+    private volatile Connection copying;
+    private volatile boolean cancelled;
+
+    /**
+     * @param table       target table, optionally schema qualified
+     * @param batchSize   rows per JDBC batch
+     * @param commitEvery rows per transaction on the INSERT path, 0 to commit once at the end
+     * @param nativeBulk  whether to use the driver's native bulk path when there is one
+     */
+    public BulkLoader(String table, int batchSize, int commitEvery, boolean nativeBulk, PrintStream logger) {
+        this.table = table;
+        this.batchSize = batchSize;
+        this.commitEvery = commitEvery;
+        this.nativeBulk = nativeBulk;
+        this.logger = logger;
+    }
+
+    /**
+     * @return number of rows loaded
+     */
+    public long load(Connection connection, @CheckForNull DatabaseDriver driver, RecordReader records)
+            throws SQLException, IOException {
+        checkIdentifiers(table.split("\\.", -1), "table name");
+        List<String> columns = records.getColumns();
+        checkIdentifiers(columns.toArray(new String[0]), "column name");
+        RecordReader source = new CancellableRecords(records);
+
+        if (nativeBulk && driver == DatabaseDriver.POSTGRESQL) {
+            logger.println("Loading with PostgreSQL COPY" + ignoredCommitEvery());
+            setCopying(connection);
+            try {
+                return PostgresCopyLoader.load(connection, table, columns, source);
+            } finally {
+                copying = null;
+            }
+        }
+        TargetColumns target = targetColumns(connection, columns);
+        if (nativeBulk && driver == DatabaseDriver.SQLSERVER) {
+            // bulk copy gives up as soon as the records stop, which cancelling does
+            logger.println("Loading with SQL Server bulk copy" + ignoredCommitEvery());
+            return SqlServerBulkCopyLoader.load(connection, table, columns, target, source, batchSize);
+        }
+        return insert(connection, columns, target.types, source);
+    }
+
+    /**
+     * Stops the load from another thread: no further record is read, and the statement or {@code COPY} running on
+     * the database is cancelled. The load then fails and rolls back what it has not committed.
+     */
+    public void cancel() {
+        cancelled = true;
+        cancelRunning();
+    }
+
+    private void setRunning(@CheckForNull Statement statement) {
+        running = statement;
+        if (cancelled) {
+            cancelRunning();
+        }
+    }
+
+    private void setCopying(Connection connection) {
+        copying = connection;
+        if (cancelled) {
+            cancelRunning();
+        }
+    }
+
+    private void cancelRunning() {
+        try {
+            Statement statement = running;
+            if (statement != null) {
+                statement.cancel();
+            }
+            Connection connection = copying;
+            if (connection != null) {
+                PostgresCopyLoader.cancel(connection);
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Failed to cancel SQL load", e);
+        }
+    }
+
+    private String ignoredCommitEvery() {
+        return commitEvery > 0 ? " ('commitEvery' only applies to INSERTs and is ignored)" : "";
+    }
+
+    private long insert(Connection connection, List<String> columns, int[] types, RecordReader records)
+            throws SQLException, IOException {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (")
+                .append(String.join(", ", columns)).append(") VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        sql.append(')');
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        long rows = 0;
+        long committed = 0;
+        int pending = 0;
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            setRunning(statement);
+            Object[] record;
+            while ((record = records.next()) != null) {
+                for (int i = 0; i < record.length; i++) {
+                    Object value = convert(record[i], types[i]);
+                    if (value == null) {
+                        statement.setNull(i + 1, types[i]);
+                    } else {
+                        statement.setObject(i + 1, value, types[i]);
+                    }
+                }
+                statement.addBatch();
+                rows++;
+                if (++pending >= batchSize) {
+                    statement.executeBatch();
+                    pending = 0;
+                    if (commitEvery > 0 && rows - committed >= commitEvery) {
+                        connection.commit();
+                        committed = rows;
+                        logger.println("Committed " + committed + " row(s)");
+                    }
+                }
+            }
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+            connection.commit();
+            return rows;
+        } catch (SQLException | IOException | RuntimeException e) {
+            connection.rollback();
+            logger.println("Load failed after " + rows + " row(s), " + committed + " row(s) were committed");
+            throw e;
+        } finally {
+            running = null;
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Ends the input early once the load is cancelled
+     */
+    private final class CancellableRecords implements RecordReader {
+        private final RecordReader records;
+
+        CancellableRecords(RecordReader records) {
+            this.records = records;
+        }
+
+        @Override
+        public List<String> getColumns() throws IOException {
+            return records.getColumns();
+        }
+
+        @CheckForNull
+        @Override
+        public Object[] next() throws IOException {
+            if (cancelled) {
+                throw new InterruptedIOException("SQL load was cancelled");
+            }
+            return records.next();
+        }
+
+        @Override
+        public void close() throws IOException {
+            records.close();
+        }
+    }
+
+    /**
+     * Reads the JDBC types of the target columns from an empty result, so that text values can be converted.
+     */
+    private TargetColumns targetColumns(Connection connection, List<String> columns) throws SQLException {
+        String sql = "SELECT " + String.join(", ", columns) + " FROM " + table + " WHERE 1 = 0";
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            return new TargetColumns(resultSet.getMetaData());
+        }
+    }
+
+    static class TargetColumns {
+        final int[] types;
+        final int[] precisions;
+        final int[] scales;
+
+        TargetColumns(ResultSetMetaData metaData) throws SQLException {
+            int count = metaData.getColumnCount();
+            types = new int[count];
+            precisions = new int[count];
+            scales = new int[count];
+            for (int i = 0; i < count; i++) {
+                types[i] = metaData.getColumnType(i + 1);
+                precisions[i] = metaData.getPrecision(i + 1);
+                scales[i] = metaData.getScale(i + 1);
+            }
+        }
+    }
+
+    private static void checkIdentifiers(String[] names, String kind) {
+        for (String name : names) {
+            if (name == null || !IDENTIFIER.matcher(name.trim()).matches()) {
+                throw new IllegalArgumentException("Invalid " + kind + ": " + name);
+            }
+        }
+    }
+
+    /**
+     * Converts a value read from text or JSON to the Java type matching the target column.
+     */
+    @CheckForNull
+    static Object convert(@CheckForNull Object value, int sqlType) {
+        if (value == null) {
+            return null;
+        }
+        String text = value.toString().trim();
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return value instanceof Number ? ((Number) value).intValue() : Integer.valueOf(text);
+            case Types.BIGINT:
+                return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(text);
+            case Types.REAL:
+                return value instanceof Number ? ((Number) value).floatValue() : Float.valueOf(text);
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf(text);
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return new BigDecimal(text);
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return value instanceof Boolean ? value : "1".equals(text) || Boolean.parseBoolean(text);
+            case Types.DATE:
+                return Date.valueOf(text);
+            case Types.TIME:
+                return Time.valueOf(text);
+            case Types.TIMESTAMP:
+                return Timestamp.valueOf(text.replace('T', ' '));
+            default:
+                return value instanceof String ? value : value.toString();
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package io.jenkins.plugins.sql.service;
+
+import io.jenkins.plugins.sql.metrics.ConnectionMetrics;
+import io.jenkins.plugins.sql.metrics.SqlMetrics;
+import jenkins.util.Timer;
+
+import javax.annotation.CheckForNull;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admits steps to a database connection, at most as many at a time as the connection's pool holds.
+ * <p>
+ * Steps that find every slot taken queue per tenant (a job or a top-level folder), and freed slots go to the
+ * tenants in turn, so that a job running hundreds of parallel branches cannot starve the others. A waiting step
+ * holds no thread, and fails once it has waited longer than the connection allows.
+ */
+public final class ConnectionAdmission {
+    private final String connectionId;
+    private final ConnectionMetrics metrics;
+    private int limit;
+    private int inUse;
+    private int waiting;
+    /**
+     * Waiters by tenant, in the order the tenants are served
+     */
+    private final LinkedHashMap<String, ArrayDeque<Waiter>> queues = new LinkedHashMap<>();
+    private long admitted;
+    private long queued;
+    private long grantedAfterWait;
+    private long timeouts;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    ConnectionAdmission(String connectionId, int limit) {
+        this.connectionId = connectionId;
+        this.limit = limit;
+        this.metrics = SqlMetrics.forConnection(connectionId);
+    }
+
+    /**
+     * Requests a slot. The returned future completes with the slot, or with an {@link SQLException} when the wait
+     * times out; cancelling it gives up the place in the queue.
+     *
+     * @param tenant       the job or folder the request is queued under
+     * @param maxWaitMillis how long to wait for a slot, 0 to wait without limit
+     */
+    public CompletableFuture<Permit> acquire(String tenant, long maxWaitMillis, PrintStream logger) {
+        Waiter waiter;
+        synchronized (this) {
+            if (inUse < limit && waiting == 0) {
+                inUse++;
+                admitted++;
+                metrics.getSlotWait().record(0);
+                return CompletableFuture.completedFuture(new Permit(this));
+            }
+            waiter = new Waiter(tenant, logger);
+            queues.computeIfAbsent(tenant, t -> new ArrayDeque<>()).add(waiter);
+            waiting++;
+            queued++;
+            logger.println("Waiting for DB slot on connection " + connectionId + " (" + inUse + " of " + limit
+                    + " in use, " + waiting + " queued)");
+        }
+        if (maxWaitMillis > 0) {
+            waiter.timeout = Timer.get().schedule(() -> expire(waiter, maxWaitMillis), maxWaitMillis, TimeUnit.MILLISECONDS);
+        }
+        waiter.future.whenComplete((permit, error) -> {
+            if (waiter.future.isCancelled()) {
+                remove(waiter);
+            }
+        });
+        return waiter.future;
+    }
+
+    /**
+     * Grants a slot only if one is free and no step is waiting for it, for the extra connections of a step that
+     * already holds a slot and can do without them.
+     *
+     * @return the slot, or {@code null} if there is none to spare
+     */
+    @CheckForNull
+    public synchronized Permit tryAcquire() {
+        if (inUse < limit && waiting == 0) {
+            inUse++;
+            admitted++;
+            metrics.getSlotWait().record(0);
+            return new Permit(this);
+        }
+        return null;
+    }
+
+    /**
+     * Changes the number of slots, e.g. when the connection's pool size was reconfigured
+     */
+    void setLimit(int limit) {
+        List<Waiter> granted;
+        synchronized (this) {
+            this.limit = limit;
+            granted = grant();
+        }
+        complete(granted);
+    }
+
+    private void release() {
+        List<Waiter> granted;
+        synchronized (this) {
+            inUse--;
+            granted = grant();
+        }
+        complete(granted);
+    }
+
+    /**
+     * Hands free slots to the waiting tenants in turn. Called with the lock held; the futures are completed by
+     * the caller after releasing it.
+     */
+    private List<Waiter> grant() {
+        List<Waiter> granted = new ArrayList<>();
+        while (inUse < limit && waiting > 0) {
+            Iterator<Map.Entry<String, ArrayDeque<Waiter>>> tenants = queues.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Waiter>> next = tenants.next();
+            tenants.remove();
+            Waiter waiter = next.getValue().poll();
+            if (!next.getValue().isEmpty()) {
+                // the tenant goes to the back of the line
+                queues.put(next.getKey(), next.getValue());
+            }
+            waiting--;
+            inUse++;
+            admitted++;
+            grantedAfterWait++;
+            long waited = System.nanoTime() - waiter.since;
+            totalWaitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+            granted.add(waiter);
+        }
+        return granted;
+    }
+
+    private void complete(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            if (waiter.timeout != null) {
+                waiter.timeout.cancel(false);
+            }
+            Permit permit = new Permit(this);
+            if (waiter.future.complete(permit)) {
+                long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waiter.since);
+                metrics.getSlotWait().record(waited);
+                waiter.logger.println("Acquired DB slot on connection " + connectionId + " after " + waited + " ms");
+            } else {
+                // cancelled while the slot was being granted
+                permit.close();
+            }
+        }
+    }
+
+    private void expire(Waiter waiter, long maxWaitMillis) {
+        int depth;
+        synchronized (this) {
+            if (!dequeue(waiter)) {
+                return;
+            }
+            timeouts++;
+            depth = waiting;
+        }
+        waiter.future.completeExceptionally(new SQLException("Timed out after " + maxWaitMillis / 1000
+                + " s waiting for a DB slot on connection " + connectionId + " (" + depth + " still queued)"));
+    }
+
+    private void remove(Waiter waiter) {
+        if (waiter.timeout != null) {
+            waiter.timeout.cancel(false);
+        }
+        synchronized (this) {
+            dequeue(waiter);
+        }
+    }
+
+    private boolean dequeue(Waiter waiter) {
+        ArrayDeque<Waiter> queue = queues.get(waiter.tenant);
+        if (queue == null || !queue.remove(waiter)) {
+            return false;
+        }
+        if (queue.isEmpty()) {
+            queues.remove(waiter.tenant);
+        }
+        waiting--;
+        return true;
+    }
+
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInUse() {
+        return inUse;
+    }
+
+    /**
+     * @return number of steps waiting for a slot
+     */
+    public synchronized int getQueueDepth() {
+        return waiting;
+    }
+
+    public synchronized long getAdmittedCount() {
+        return admitted;
+    }
+
+    /**
+     * @return number of requests that had to wait for a slot
+     */
+    public synchronized long getQueuedCount() {
+        return queued;
+    }
+
+    public synchronized long getTimeoutCount() {
+        return timeouts;
+    }
+
+    /**
+     * @return average wait of the requests that had to wait and were granted a slot
+     */
+    public synchronized long getAverageWaitMillis() {
+        return grantedAfterWait > 0 ? TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / grantedAfterWait) : 0;
+    }
+
+    public synchronized long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    /**
+     * A granted slot, released by {@link #close()}
+     */
+    public static final class Permit implements AutoCloseable {
+        private final ConnectionAdmission admission;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(ConnectionAdmission admission) {
+            this.admission = admission;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                admission.release();
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final String tenant;
+        private final PrintStream logger;
+        private final long since = System.nanoTime();
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> timeout;
+
+        Waiter(String tenant, PrintStream logger) {
+            this.tenant = tenant;
+            this.logger = logger;
+        }
+    }
+}
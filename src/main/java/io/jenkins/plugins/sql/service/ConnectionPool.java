@@ -0,0 +1,30 @@
+package io.jenkins.plugins.sql.service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A pool of physical connections built by a {@link PoolProvider}
+ */
+public interface ConnectionPool {
+
+    Connection getConnection() throws SQLException;
+
+    /**
+     * @return number of connections currently lent out
+     */
+    int getActive();
+
+    /**
+     * @return number of open connections waiting to be borrowed
+     */
+    int getIdle();
+
+    /**
+     * Stops lending connections and closes the idle ones. Connections still borrowed must keep working until they
+     * are returned, and are closed then.
+     */
+    void retire();
+
+    boolean isRetired();
+}
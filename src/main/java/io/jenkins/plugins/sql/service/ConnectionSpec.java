@@ -0,0 +1,206 @@
+package io.jenkins.plugins.sql.service;
+
+import hudson.util.Secret;
+import io.jenkins.plugins.sql.model.DatabaseConnection;
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+
+import javax.annotation.CheckForNull;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Snapshot of the settings needed to open a pool for a {@link DatabaseConnection}.
+ * <p>
+ * Unlike the configuration it is taken from, the snapshot holds the password in plain text, so that it can be
+ * sent to the agent that runs a query. It is never persisted.
+ * <p>
+ * Each snapshot carries the version of the configuration it was taken from, so that a pool built from newer
+ * settings is never replaced by one built from a snapshot that a build read before the configuration was saved.
+ */
+public final class ConnectionSpec implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String id;
+    private final String driverClass;
+    private final String url;
+    private final String username;
+    @CheckForNull
+    private final String password;
+    private final int maxConnections;
+    private final int connectionTimeout;
+    private final boolean testOnBorrow;
+    private final boolean poolPreparedStatements;
+    private final int maxOpenPreparedStatements;
+    private final int maxWaitSeconds;
+    private final String poolProvider;
+    private final int minIdle;
+    private final int maxIdle;
+    private final int maxLifetimeSeconds;
+    private final int idleTimeoutSeconds;
+    private final int leakDetectionSeconds;
+    private final String validationQuery;
+    @CheckForNull
+    private final DatabaseDriver driver;
+    private final long configVersion;
+
+    private ConnectionSpec(DatabaseConnection connection, long configVersion) {
+        this.configVersion = configVersion;
+        this.id = connection.getUuid();
+        this.driverClass = connection.getDriverClass();
+        this.url = connection.getUrl();
+        this.username = connection.getUsername();
+        Secret secret = connection.getPassword();
+        this.password = secret != null ? secret.getPlainText() : null;
+        this.maxConnections = connection.getMaxConnections();
+        this.connectionTimeout = connection.getConnectionTimeout();
+        this.testOnBorrow = connection.isTestOnBorrow();
+        this.poolPreparedStatements = connection.isPoolPreparedStatements();
+        this.maxOpenPreparedStatements = connection.getMaxOpenPreparedStatements();
+        this.maxWaitSeconds = connection.getMaxWaitSeconds();
+        this.poolProvider = connection.getPoolProvider();
+        this.minIdle = connection.getMinIdle();
+        this.maxIdle = connection.getMaxIdle();
+        this.maxLifetimeSeconds = connection.getMaxLifetimeSeconds();
+        this.idleTimeoutSeconds = connection.getIdleTimeoutSeconds();
+        this.leakDetectionSeconds = connection.getLeakDetectionSeconds();
+        this.validationQuery = connection.getValidationQuery();
+        this.driver = DatabaseDriver.forConnection(connection);
+    }
+
+    /**
+     * @param configVersion version of the configuration the connection belongs to
+     */
+    public static ConnectionSpec of(DatabaseConnection connection, long configVersion) {
+        return new ConnectionSpec(connection, configVersion);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDriverClass() {
+        return driverClass;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    @CheckForNull
+    public String getPassword() {
+        return password;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    public boolean isPoolPreparedStatements() {
+        return poolPreparedStatements;
+    }
+
+    public int getMaxOpenPreparedStatements() {
+        return maxOpenPreparedStatements;
+    }
+
+    /**
+     * @return how long to wait for a pooled connection, 0 to wait without limit
+     */
+    public int getMaxWaitSeconds() {
+        return maxWaitSeconds;
+    }
+
+    public String getPoolProvider() {
+        return poolProvider;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public int getMaxLifetimeSeconds() {
+        return maxLifetimeSeconds;
+    }
+
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    public int getLeakDetectionSeconds() {
+        return leakDetectionSeconds;
+    }
+
+    /**
+     * @return query that validates connections, empty to validate with {@code Connection.isValid}
+     */
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    /**
+     * @return the predefined driver of the connection, or {@code null} for custom drivers
+     */
+    @CheckForNull
+    public DatabaseDriver getDriver() {
+        return driver;
+    }
+
+    /**
+     * @return version of the configuration the settings were taken from, higher for later configurations. Not part
+     * of {@link #equals}, which compares the settings only.
+     */
+    public long getConfigVersion() {
+        return configVersion;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ConnectionSpec that = (ConnectionSpec) o;
+        return maxConnections == that.maxConnections
+                && connectionTimeout == that.connectionTimeout
+                && testOnBorrow == that.testOnBorrow
+                && poolPreparedStatements == that.poolPreparedStatements
+                && maxOpenPreparedStatements == that.maxOpenPreparedStatements
+                && maxWaitSeconds == that.maxWaitSeconds
+                && minIdle == that.minIdle
+                && maxIdle == that.maxIdle
+                && maxLifetimeSeconds == that.maxLifetimeSeconds
+                && idleTimeoutSeconds == that.idleTimeoutSeconds
+                && leakDetectionSeconds == that.leakDetectionSeconds
+                && Objects.equals(poolProvider, that.poolProvider)
+                && Objects.equals(validationQuery, that.validationQuery)
+                && Objects.equals(id, that.id)
+                && Objects.equals(driverClass, that.driverClass)
+                && Objects.equals(url, that.url)
+                && Objects.equals(username, that.username)
+                && Objects.equals(password, that.password);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, driverClass, url, username, maxConnections);
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionSpec{id=" + id + ", url=" + url + ", username=" + username + "}";
+    }
+}
@@ -0,0 +1,140 @@
+package io.jenkins.plugins.sql.service;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RFC 4180 CSV reader. Quoted fields may contain delimiters, doubled quotes and line breaks.
+ * An empty unquoted field is read as {@code null}, an empty quoted field as an empty string.
+ */
+public class CsvRecordReader implements RecordReader {
+
+    private final BufferedReader reader;
+    private final char delimiter;
+    private final boolean header;
+    private List<String> columns;
+    private boolean headerRead;
+    private long line = 1;
+
+    public CsvRecordReader(Reader reader, char delimiter, boolean header, @CheckForNull List<String> columns) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.delimiter = delimiter;
+        this.header = header;
+        this.columns = columns;
+    }
+
+    @Override
+    public List<String> getColumns() throws IOException {
+        if (header && !headerRead) {
+            headerRead = true;
+            List<String> names = readRecord();
+            if (names == null) {
+                throw new IOException("CSV input is empty, no header found");
+            }
+            // explicit columns take precedence over the header line
+            if (columns == null || columns.isEmpty()) {
+                columns = names;
+            }
+        }
+        if (columns == null || columns.isEmpty()) {
+            throw new IOException("CSV input without header requires 'columns'");
+        }
+        return columns;
+    }
+
+    @Override
+    @CheckForNull
+    public Object[] next() throws IOException {
+        int expected = getColumns().size();
+        List<String> fields;
+        do {
+            fields = readRecord();
+            if (fields == null) {
+                return null;
+            }
+        } while (fields.size() == 1 && fields.get(0) == null);
+
+        if (fields.size() != expected) {
+            throw new IOException("CSV record ending at line " + (line - 1) + " has " + fields.size()
+                    + " field(s), expected " + expected);
+        }
+        return fields.toArray();
+    }
+
+    @CheckForNull
+    private List<String> readRecord() throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        boolean empty = true;
+
+        while (true) {
+            int c = reader.read();
+            if (c == -1) {
+                if (inQuotes) {
+                    throw new IOException("Unterminated quoted CSV field at line " + line);
+                }
+                if (empty) {
+                    return null;
+                }
+                fields.add(value(field, quoted));
+                return fields;
+            }
+            empty = false;
+            char ch = (char) c;
+
+            if (inQuotes) {
+                if (ch == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        field.append('"');
+                    } else {
+                        inQuotes = false;
+                        reader.reset();
+                    }
+                } else {
+                    if (ch == '\n') {
+                        line++;
+                    }
+                    field.append(ch);
+                }
+            } else if (ch == '"' && field.length() == 0 && !quoted) {
+                inQuotes = true;
+                quoted = true;
+            } else if (ch == delimiter) {
+                fields.add(value(field, quoted));
+                field.setLength(0);
+                quoted = false;
+            } else if (ch == '\r' || ch == '\n') {
+                if (ch == '\r') {
+                    reader.mark(1);
+                    if (reader.read() != '\n') {
+                        reader.reset();
+                    }
+                }
+                line++;
+                fields.add(value(field, quoted));
+                return fields;
+            } else {
+                field.append(ch);
+            }
+        }
+    }
+
+    private static String value(StringBuilder field, boolean quoted) {
+        if (!quoted && field.length() == 0) {
+            return null;
+        }
+        return field.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,73 @@
+package io.jenkins.plugins.sql.service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * RFC 4180 CSV writer. Fields containing the delimiter, quotes or line breaks are quoted. {@code null} is written
+ * as an empty field and an empty string as {@code ""}, matching what {@link CsvRecordReader} reads back.
+ */
+public class CsvRecordWriter implements RecordWriter {
+
+    private final Writer writer;
+    private final char delimiter;
+    private final boolean header;
+
+    public CsvRecordWriter(Writer writer, char delimiter, boolean header) {
+        this.writer = writer;
+        this.delimiter = delimiter;
+        this.header = header;
+    }
+
+    @Override
+    public void start(List<String> columns) throws IOException {
+        if (header) {
+            write(columns.toArray());
+        }
+    }
+
+    @Override
+    public void write(Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(delimiter);
+            }
+            if (values[i] != null) {
+                writeField(values[i].toString());
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    private void writeField(String value) throws IOException {
+        if (!value.isEmpty() && !needsQuotes(value)) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"') {
+                writer.write('"');
+            }
+            writer.write(ch);
+        }
+        writer.write('"');
+    }
+
+    private boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == delimiter || ch == '"' || ch == '\n' || ch == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -1,15 +1,30 @@
 package io.jenkins.plugins.sql.service;
 
-import hudson.util.Secret;
+import hudson.model.Computer;
+import hudson.model.Run;
 import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.metrics.ConnectionMetrics;
+import io.jenkins.plugins.sql.metrics.SqlMetrics;
 import io.jenkins.plugins.sql.model.DatabaseConnection;
-import org.apache.commons.dbcp2.BasicDataSource;
+import io.jenkins.plugins.sql.model.DatabaseDriver;
 
-import javax.sql.DataSource;
+import javax.annotation.CheckForNull;
+import java.io.PrintStream;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -17,72 +32,232 @@ import java.util.logging.Logger;
  */
 public class DatabaseService {
     private static final Logger LOGGER = Logger.getLogger(DatabaseService.class.getName());
-    private static final ConcurrentMap<String, DataSource> dataSourceCache = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, PoolVersion> pools = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, ConnectionAdmission> admissions = new ConcurrentHashMap<>();
     
     private DatabaseService() {
         // Utility class
     }
     
     public static Connection getConnection(String connectionId) throws SQLException {
+        ConnectionSpec spec = SqlGlobalConfiguration.get().getConnectionSpec(connectionId);
+        if (spec == null) {
+            throw new SQLException("Database connection '" + connectionId + "' not found in global configuration");
+        }
+        
+        // a connection whose settings changed gets a new pool, the old one drains in the background
+        ConnectionMetrics metrics = SqlMetrics.forConnection(connectionId);
+        long start = System.nanoTime();
+        try {
+            Connection connection = PoolVersion.getConnection(pools, spec);
+            metrics.getBorrow().recordSince(start);
+            return connection;
+        } catch (SQLException e) {
+            metrics.recordFailure(e);
+            throw e;
+        }
+    }
+    
+    /**
+     * Applies saved connection settings to the live pools: pools of changed connections are replaced and pools of
+     * removed connections are retired. Queries running on a replaced pool finish undisturbed.
+     */
+    public static void reconfigure(List<DatabaseConnection> connections) {
+        Set<String> configured = new HashSet<>();
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        for (DatabaseConnection dbConfig : connections) {
+            configured.add(dbConfig.getUuid());
+            ConnectionSpec spec = config.getConnectionSpec(dbConfig.getUuid());
+            PoolVersion previous = pools.get(dbConfig.getUuid());
+            if (spec == null || previous == null || PoolVersion.current(pools, spec) != previous) {
+                // queries run on agents leave no pool here, so without one the settings may have changed too
+                ResultCache.get().invalidate(dbConfig.getUuid());
+            }
+            ConnectionAdmission admission = admissions.get(dbConfig.getUuid());
+            if (admission != null) {
+                admission.setLimit(dbConfig.getMaxConnections());
+            }
+        }
+        for (String connectionId : pools.keySet()) {
+            if (!configured.contains(connectionId)) {
+                LOGGER.info("Connection " + connectionId + " was removed, retiring its pool");
+                PoolVersion.remove(pools, connectionId);
+                ResultCache.get().invalidate(connectionId);
+            }
+        }
+    }
+    
+    /**
+     * Fills the pools of the connections that ask for it in the background, creating them if needed.
+     */
+    public static void prewarm(List<DatabaseConnection> connections) {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        for (DatabaseConnection dbConfig : connections) {
+            ConnectionSpec spec = config.getConnectionSpec(dbConfig.getUuid());
+            if (dbConfig.isPrewarm() && spec != null) {
+                // resolved now, so that a later configuration change is never undone by a slow pre-warm
+                PoolVersion pool = PoolVersion.current(pools, spec);
+                Computer.threadPoolForRemoting.submit(pool::prewarm);
+            }
+        }
+    }
+    
+    /**
+     * @return a description of the connection's pool for the configuration page, or {@code null} if the pool
+     * has not been created yet
+     */
+    @CheckForNull
+    public static String getPoolStatus(String connectionId) {
+        PoolVersion pool = pools.get(connectionId);
+        return pool != null ? pool.getStatus() : null;
+    }
+    
+    /**
+     * Requests a slot on the connection for a step of the given build. Steps wait in line per job, or per
+     * top-level folder, depending on the connection's queue scope.
+     *
+     * @see ConnectionAdmission
+     */
+    public static CompletableFuture<ConnectionAdmission.Permit> acquireSlot(String connectionId, @CheckForNull Run<?, ?> run,
+                                                                         PrintStream logger) throws SQLException {
         DatabaseConnection dbConfig = SqlGlobalConfiguration.get().getDatabaseConnection(connectionId);
         if (dbConfig == null) {
             throw new SQLException("Database connection '" + connectionId + "' not found in global configuration");
         }
-        
-        DataSource dataSource = getOrCreateDataSource(dbConfig);
-        return dataSource.getConnection();
+        ConnectionAdmission admission = admissions.computeIfAbsent(dbConfig.getUuid(),
+                id -> new ConnectionAdmission(id, dbConfig.getMaxConnections()));
+        if (admission.getLimit() != dbConfig.getMaxConnections()) {
+            admission.setLimit(dbConfig.getMaxConnections());
+        }
+        return admission.acquire(tenant(dbConfig, run), TimeUnit.SECONDS.toMillis(dbConfig.getMaxWaitSeconds()), logger);
     }
     
-    private static DataSource getOrCreateDataSource(DatabaseConnection dbConfig) {
-        return dataSourceCache.computeIfAbsent(dbConfig.getUuid(), id -> createDataSource(dbConfig));
+    /**
+     * Takes up to {@code count} additional slots on the connection without waiting, leaving slots that other steps
+     * are waiting for to them.
+     *
+     * @return the slots that were free, possibly none
+     */
+    public static List<ConnectionAdmission.Permit> tryAcquireSlots(String connectionId, int count) {
+        List<ConnectionAdmission.Permit> permits = new ArrayList<>();
+        DatabaseConnection dbConfig = SqlGlobalConfiguration.get().getDatabaseConnection(connectionId);
+        ConnectionAdmission admission = dbConfig != null ? admissions.get(dbConfig.getUuid()) : null;
+        while (admission != null && permits.size() < count) {
+            ConnectionAdmission.Permit permit = admission.tryAcquire();
+            if (permit == null) {
+                break;
+            }
+            permits.add(permit);
+        }
+        return permits;
     }
     
-    private static DataSource createDataSource(DatabaseConnection dbConfig) {
-        LOGGER.info("Creating data source for connection: " + dbConfig.getUuid());
-        
-        BasicDataSource dataSource = new BasicDataSource();
-        dataSource.setDriverClassName(dbConfig.getDriverClass());
-        dataSource.setUrl(dbConfig.getUrl());
-        dataSource.setUsername(dbConfig.getUsername());
-        
-        Secret password = dbConfig.getPassword();
-        if (password != null) {
-            dataSource.setPassword(password.getPlainText());
+    /**
+     * @return queue state and wait times of every connection that was used since startup
+     */
+    public static Collection<ConnectionAdmission> getAdmissions() {
+        return Collections.unmodifiableCollection(admissions.values());
+    }
+    
+    /**
+     * @return the admission of the connection, or {@code null} if no step used it yet
+     */
+    @CheckForNull
+    public static ConnectionAdmission getAdmission(String connectionId) {
+        return admissions.get(connectionId);
+    }
+    
+    /**
+     * @return number of connections lent out by the connection's current pool
+     */
+    public static int getActiveConnections(String connectionId) {
+        PoolVersion pool = pools.get(connectionId);
+        return pool != null ? pool.getActive() : 0;
+    }
+    
+    /**
+     * @return number of open connections waiting in the connection's current pool
+     */
+    public static int getIdleConnections(String connectionId) {
+        PoolVersion pool = pools.get(connectionId);
+        return pool != null ? pool.getIdle() : 0;
+    }
+    
+    private static String tenant(DatabaseConnection dbConfig, @CheckForNull Run<?, ?> run) {
+        if (run == null) {
+            return "";
         }
-        
-        // Connection pool settings
-        dataSource.setMaxTotal(dbConfig.getMaxConnections());
-        dataSource.setMaxIdle(dbConfig.getMaxConnections() / 2);
-        dataSource.setMinIdle(1);
-        dataSource.setTestOnBorrow(dbConfig.isTestOnBorrow());
-        dataSource.setValidationQuery("SELECT 1");
-        dataSource.setValidationQueryTimeout(dbConfig.getConnectionTimeout());
-        
-        return dataSource;
+        String fullName = run.getParent().getFullName();
+        if (DatabaseConnection.QUEUE_SCOPE_FOLDER.equals(dbConfig.getQueueScope())) {
+            int slash = fullName.indexOf('/');
+            return slash < 0 ? fullName : fullName.substring(0, slash);
+        }
+        return fullName;
+    }
+    
+    /**
+     * @return the predefined driver of the connection, or {@code null} for unknown connections and custom drivers
+     */
+    @CheckForNull
+    public static DatabaseDriver getDatabaseDriver(String connectionId) {
+        ConnectionSpec spec = SqlGlobalConfiguration.get().getConnectionSpec(connectionId);
+        return spec != null ? spec.getDriver() : null;
+    }
+    
+    /**
+     * Creates a forward-only, read-only statement with the row limit, query timeout and fetch size pushed
+     * down to the driver. A fetch size of 0 selects the driver's streaming default.
+     */
+    public static Statement createStatement(Connection connection, @CheckForNull DatabaseDriver driver,
+                                            int fetchSize, int maxRows, int timeoutSeconds) throws SQLException {
+        Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        return configureStatement(statement, driver, fetchSize, maxRows, timeoutSeconds);
+    }
+    
+    /**
+     * Prepared variant of {@link #createStatement}. With statement pooling enabled on the connection, the
+     * same SQL text reuses the statement prepared by an earlier call.
+     */
+    public static PreparedStatement prepareStatement(Connection connection, String sql, @CheckForNull DatabaseDriver driver,
+                                                     int fetchSize, int maxRows, int timeoutSeconds) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        return configureStatement(statement, driver, fetchSize, maxRows, timeoutSeconds);
+    }
+    
+    private static <T extends Statement> T configureStatement(T statement, @CheckForNull DatabaseDriver driver,
+                                                              int fetchSize, int maxRows, int timeoutSeconds) throws SQLException {
+        try {
+            // pooled prepared statements keep their settings, so every value is set explicitly
+            statement.setMaxRows(Math.max(maxRows, 0));
+            statement.setQueryTimeout(Math.max(timeoutSeconds, 0));
+            int effectiveFetchSize = driver != null ? driver.resolveFetchSize(fetchSize) : fetchSize;
+            statement.setFetchSize(effectiveFetchSize);
+            return statement;
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * @return a snapshot of the connection's settings, for running queries on an agent
+     */
+    public static ConnectionSpec getConnectionSpec(String connectionId) throws SQLException {
+        ConnectionSpec spec = SqlGlobalConfiguration.get().getConnectionSpec(connectionId);
+        if (spec == null) {
+            throw new SQLException("Database connection '" + connectionId + "' not found in global configuration");
+        }
+        return spec;
     }
     
     public static void clearCache() {
         LOGGER.info("Clearing database connection cache");
-        for (DataSource dataSource : dataSourceCache.values()) {
-            if (dataSource instanceof BasicDataSource) {
-                try {
-                    ((BasicDataSource) dataSource).close();
-                } catch (SQLException e) {
-                    LOGGER.warning("Error closing data source: " + e.getMessage());
-                }
-            }
+        for (String connectionId : pools.keySet()) {
+            PoolVersion.remove(pools, connectionId);
         }
-        dataSourceCache.clear();
     }
     
     public static void removeCachedConnection(String connectionId) {
-        DataSource dataSource = dataSourceCache.remove(connectionId);
-        if (dataSource instanceof BasicDataSource) {
-            try {
-                ((BasicDataSource) dataSource).close();
-            } catch (SQLException e) {
-                LOGGER.warning("Error closing data source for connection " + connectionId + ": " + e.getMessage());
-            }
-        }
+        PoolVersion.remove(pools, connectionId);
     }
 }
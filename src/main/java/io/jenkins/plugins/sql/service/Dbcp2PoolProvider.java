@@ -0,0 +1,115 @@
+package io.jenkins.plugins.sql.service;
+
+import hudson.Extension;
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+import org.apache.commons.dbcp2.BasicDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pools connections with Apache Commons DBCP2, the default. Supports prepared statement pooling.
+ */
+@Extension
+public class Dbcp2PoolProvider extends PoolProvider {
+    private static final Logger LOGGER = Logger.getLogger(Dbcp2PoolProvider.class.getName());
+
+    @Override
+    public String getId() {
+        return "dbcp2";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Apache Commons DBCP2";
+    }
+
+    @Override
+    public ConnectionPool createPool(ConnectionSpec dbConfig) {
+        LOGGER.info("Creating DBCP2 data source for connection: " + dbConfig.getId());
+
+        BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setDriverClassName(dbConfig.getDriverClass());
+        dataSource.setUrl(dbConfig.getUrl());
+        dataSource.setUsername(dbConfig.getUsername());
+
+        if (dbConfig.getPassword() != null) {
+            dataSource.setPassword(dbConfig.getPassword());
+        }
+
+        DatabaseDriver driver = dbConfig.getDriver();
+        if (driver != null) {
+            driver.getBatchRewriteProperties().forEach(dataSource::addConnectionProperty);
+        }
+
+        // Connection pool settings
+        dataSource.setMaxTotal(dbConfig.getMaxConnections());
+        dataSource.setMaxIdle(dbConfig.getMaxIdle());
+        dataSource.setMinIdle(dbConfig.getMinIdle());
+        dataSource.setMaxConnLifetimeMillis(dbConfig.getMaxLifetimeSeconds() > 0
+                ? TimeUnit.SECONDS.toMillis(dbConfig.getMaxLifetimeSeconds()) : -1);
+        if (dbConfig.getIdleTimeoutSeconds() > 0) {
+            // the evictor also validates idle connections, so that stale ones are dropped before a build borrows them
+            dataSource.setTimeBetweenEvictionRunsMillis(TimeUnit.SECONDS.toMillis(30));
+            dataSource.setSoftMinEvictableIdleTimeMillis(TimeUnit.SECONDS.toMillis(dbConfig.getIdleTimeoutSeconds()));
+            dataSource.setTestWhileIdle(true);
+        }
+        dataSource.setTestOnBorrow(dbConfig.isTestOnBorrow());
+        // without a validation query, DBCP2 validates with Connection.isValid
+        if (!dbConfig.getValidationQuery().isEmpty()) {
+            dataSource.setValidationQuery(dbConfig.getValidationQuery());
+        }
+        dataSource.setValidationQueryTimeout(dbConfig.getConnectionTimeout());
+        // steps are admitted before they borrow, so this only bounds borrowers that bypass admission
+        if (dbConfig.getMaxWaitSeconds() > 0) {
+            dataSource.setMaxWaitMillis(TimeUnit.SECONDS.toMillis(dbConfig.getMaxWaitSeconds()));
+        }
+        dataSource.setPoolPreparedStatements(dbConfig.isPoolPreparedStatements());
+        dataSource.setMaxOpenPreparedStatements(dbConfig.getMaxOpenPreparedStatements());
+
+        return new Pool(dbConfig.getId(), dataSource);
+    }
+
+    private static final class Pool implements ConnectionPool {
+        private final String connectionId;
+        private final BasicDataSource dataSource;
+
+        Pool(String connectionId, BasicDataSource dataSource) {
+            this.connectionId = connectionId;
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return dataSource.getConnection();
+        }
+
+        @Override
+        public int getActive() {
+            return dataSource.getNumActive();
+        }
+
+        @Override
+        public int getIdle() {
+            return dataSource.getNumIdle();
+        }
+
+        @Override
+        public void retire() {
+            // DBCP2 closes borrowed connections when they are returned to a closed pool
+            try {
+                dataSource.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Error closing data source for connection " + connectionId, e);
+            }
+        }
+
+        @Override
+        public boolean isRetired() {
+            return dataSource.isClosed();
+        }
+    }
+}
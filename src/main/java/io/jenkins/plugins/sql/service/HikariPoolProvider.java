@@ -0,0 +1,127 @@
+package io.jenkins.plugins.sql.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import hudson.Extension;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Pools connections with HikariCP, which borrows with less overhead than DBCP2 and can report leaked connections.
+ * HikariCP always validates a connection that was idle before lending it, and does not pool prepared statements.
+ */
+@Extension
+public class HikariPoolProvider extends PoolProvider {
+    private static final Logger LOGGER = Logger.getLogger(HikariPoolProvider.class.getName());
+    /**
+     * Closes retired pools once their borrowed connections are back; closing HikariCP pools earlier aborts them
+     */
+    private static final ScheduledExecutorService drainer = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "HikariPoolDrainer"));
+
+    @Override
+    public String getId() {
+        return "hikari";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "HikariCP";
+    }
+
+    @Override
+    public ConnectionPool createPool(ConnectionSpec dbConfig) {
+        LOGGER.info("Creating HikariCP data source for connection: " + dbConfig.getId());
+
+        // configured through setters, the pool starts on first borrow
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("sql-" + dbConfig.getId());
+        dataSource.setDriverClassName(dbConfig.getDriverClass());
+        dataSource.setJdbcUrl(dbConfig.getUrl());
+        dataSource.setUsername(dbConfig.getUsername());
+        dataSource.setPassword(dbConfig.getPassword());
+
+        DatabaseDriver driver = dbConfig.getDriver();
+        if (driver != null) {
+            driver.getBatchRewriteProperties().forEach(dataSource::addDataSourceProperty);
+        }
+
+        dataSource.setMaximumPoolSize(dbConfig.getMaxConnections());
+        dataSource.setMinimumIdle(Math.min(dbConfig.getMinIdle(), dbConfig.getMaxConnections()));
+        dataSource.setMaxLifetime(TimeUnit.SECONDS.toMillis(dbConfig.getMaxLifetimeSeconds()));
+        dataSource.setIdleTimeout(TimeUnit.SECONDS.toMillis(dbConfig.getIdleTimeoutSeconds()));
+        dataSource.setLeakDetectionThreshold(TimeUnit.SECONDS.toMillis(dbConfig.getLeakDetectionSeconds()));
+        // without a test query, HikariCP validates with Connection.isValid
+        if (!dbConfig.getValidationQuery().isEmpty()) {
+            dataSource.setConnectionTestQuery(dbConfig.getValidationQuery());
+        }
+        dataSource.setValidationTimeout(TimeUnit.SECONDS.toMillis(dbConfig.getConnectionTimeout()));
+        // 0 waits without limit
+        dataSource.setConnectionTimeout(TimeUnit.SECONDS.toMillis(dbConfig.getMaxWaitSeconds()));
+        // an unreachable database fails the builds that use it, not the creation of the pool
+        dataSource.setInitializationFailTimeout(-1);
+
+        return new Pool(dataSource);
+    }
+
+    private static final class Pool implements ConnectionPool {
+        private final HikariDataSource dataSource;
+        private volatile boolean retired;
+
+        Pool(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (retired) {
+                throw new SQLException("Pool " + dataSource.getPoolName() + " was retired");
+            }
+            return dataSource.getConnection();
+        }
+
+        @Override
+        public int getActive() {
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            return pool != null ? pool.getActiveConnections() : 0;
+        }
+
+        @Override
+        public int getIdle() {
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            return pool != null ? pool.getIdleConnections() : 0;
+        }
+
+        @Override
+        public void retire() {
+            retired = true;
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            if (pool != null) {
+                // idle connections close now, borrowed ones when they are returned
+                pool.softEvictConnections();
+            }
+            closeWhenDrained();
+        }
+
+        private void closeWhenDrained() {
+            if (getActive() > 0) {
+                drainer.schedule(this::closeWhenDrained, 1, TimeUnit.SECONDS);
+            } else {
+                dataSource.close();
+            }
+        }
+
+        @Override
+        public boolean isRetired() {
+            return retired;
+        }
+    }
+}
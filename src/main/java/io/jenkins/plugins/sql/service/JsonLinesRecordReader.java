@@ -0,0 +1,93 @@
+package io.jenkins.plugins.sql.service;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader for JSON Lines input: one JSON object per line. Without explicit columns, the keys of the first
+ * object are used. Missing keys and JSON nulls are read as {@code null}, nested values as their JSON text.
+ */
+public class JsonLinesRecordReader implements RecordReader {
+
+    private final BufferedReader reader;
+    private List<String> columns;
+    private JSONObject first;
+    private long line;
+
+    public JsonLinesRecordReader(Reader reader, @CheckForNull List<String> columns) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.columns = columns;
+    }
+
+    @Override
+    public List<String> getColumns() throws IOException {
+        if (columns == null || columns.isEmpty()) {
+            first = readObject();
+            if (first == null) {
+                throw new IOException("JSON Lines input is empty");
+            }
+            List<String> names = new ArrayList<>();
+            for (Object key : first.keySet()) {
+                names.add(key.toString());
+            }
+            columns = names;
+        }
+        return columns;
+    }
+
+    @Override
+    @CheckForNull
+    public Object[] next() throws IOException {
+        List<String> names = getColumns();
+        JSONObject object = first != null ? first : readObject();
+        first = null;
+        if (object == null) {
+            return null;
+        }
+
+        Object[] values = new Object[names.size()];
+        for (int i = 0; i < values.length; i++) {
+            Object value = object.opt(names.get(i));
+            if (value == null || JSONNull.getInstance().equals(value)) {
+                values[i] = null;
+            } else if (value instanceof JSONObject || value instanceof JSONArray) {
+                values[i] = value.toString();
+            } else {
+                values[i] = value;
+            }
+        }
+        return values;
+    }
+
+    @CheckForNull
+    private JSONObject readObject() throws IOException {
+        String text;
+        do {
+            text = reader.readLine();
+            line++;
+            if (text == null) {
+                return null;
+            }
+        } while (text.trim().isEmpty());
+
+        try {
+            return JSONObject.fromObject(text);
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON object at line " + line + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,96 @@
+package io.jenkins.plugins.sql.service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writer for JSON Lines output: one JSON object per row, with the column names as keys. Numbers and booleans are
+ * written as JSON numbers and booleans, everything else as strings.
+ */
+public class JsonLinesRecordWriter implements RecordWriter {
+
+    private final Writer writer;
+    private String[] keys;
+
+    public JsonLinesRecordWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void start(List<String> columns) throws IOException {
+        // keys are escaped once instead of for every row
+        keys = new String[columns.size()];
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            key.setLength(0);
+            appendString(key, columns.get(i));
+            keys[i] = key.append(':').toString();
+        }
+    }
+
+    @Override
+    public void write(Object[] values) throws IOException {
+        StringBuilder line = new StringBuilder(64 * values.length);
+        line.append('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(keys[i]);
+            Object value = values[i];
+            if (value == null) {
+                line.append("null");
+            } else if (value instanceof Boolean || isFinite(value)) {
+                line.append(value);
+            } else {
+                appendString(line, value.toString());
+            }
+        }
+        writer.write(line.append("}\n").toString());
+    }
+
+    private static boolean isFinite(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            return !Double.isNaN(number) && !Double.isInfinite(number);
+        }
+        return value instanceof Number;
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        out.append(String.format("\\u%04x", (int) ch));
+                    } else {
+                        out.append(ch);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,47 @@
+package io.jenkins.plugins.sql.service;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the connection pools of database connections. Each connection selects a provider by its id.
+ * <p>
+ * Pools of queries run with {@code runOnAgent} are built in the agent JVM, where only the providers of this plugin
+ * are available.
+ */
+public abstract class PoolProvider implements ExtensionPoint {
+
+    /**
+     * @return id stored in the connection configuration
+     */
+    public abstract String getId();
+
+    public abstract String getDisplayName();
+
+    /**
+     * Creates a pool for the connection settings. Physical connections should be opened lazily, on first borrow.
+     */
+    public abstract ConnectionPool createPool(ConnectionSpec spec);
+
+    public static List<PoolProvider> all() {
+        if (Jenkins.getInstanceOrNull() == null) {
+            // agent JVM
+            return Arrays.asList(new Dbcp2PoolProvider(), new HikariPoolProvider());
+        }
+        return ExtensionList.lookup(PoolProvider.class);
+    }
+
+    public static PoolProvider forId(@CheckForNull String id) {
+        for (PoolProvider provider : all()) {
+            if (provider.getId().equals(id)) {
+                return provider;
+            }
+        }
+        throw new IllegalArgumentException("Unknown connection pool provider: " + id);
+    }
+}
@@ -0,0 +1,174 @@
+package io.jenkins.plugins.sql.service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One version of a connection's pool, built from a snapshot of the connection's settings.
+ * <p>
+ * When the settings change, a new version takes over and the old one is retired: it lends no more connections and
+ * closes its idle ones, while the connections it has lent stay open until their queries finish and they are
+ * returned. A configuration change therefore needs no restart and interrupts no running query.
+ * <p>
+ * Only settings from a later configuration replace a pool. A borrower holding settings read before the last
+ * configuration change, such as a build that started before it, borrows from the current pool instead of bringing
+ * the old settings back.
+ */
+final class PoolVersion {
+    private static final Logger LOGGER = Logger.getLogger(PoolVersion.class.getName());
+
+    private final ConnectionSpec spec;
+    private final int version;
+    private final ConnectionPool pool;
+    /**
+     * Latest configuration version whose settings match this pool's
+     */
+    private final AtomicLong configVersion;
+    private volatile String status;
+
+    private PoolVersion(ConnectionSpec spec, int version) {
+        this.spec = spec;
+        this.version = version;
+        this.configVersion = new AtomicLong(spec.getConfigVersion());
+        this.pool = PoolProvider.forId(spec.getPoolProvider()).createPool(spec);
+    }
+
+    /**
+     * Returns the pool for the given settings, replacing and retiring the current version if it was built from
+     * different settings of an earlier configuration.
+     */
+    static PoolVersion current(ConcurrentMap<String, PoolVersion> pools, ConnectionSpec spec) {
+        PoolVersion current = pools.get(spec.getId());
+        if (current != null && !current.isReplacedBy(spec)) {
+            return current;
+        }
+        PoolVersion[] replaced = new PoolVersion[1];
+        PoolVersion next = pools.compute(spec.getId(), (id, existing) -> {
+            if (existing != null && !existing.isReplacedBy(spec)) {
+                return existing;
+            }
+            replaced[0] = existing;
+            return new PoolVersion(spec, existing != null ? existing.version + 1 : 1);
+        });
+        if (replaced[0] != null) {
+            LOGGER.info("Settings of connection " + spec.getId() + " changed, replacing pool version "
+                    + replaced[0].version + " with version " + next.version);
+            replaced[0].retire();
+        }
+        return next;
+    }
+
+    private boolean isReplacedBy(ConnectionSpec other) {
+        if (spec.equals(other)) {
+            // a later configuration that kept the settings still outdates every earlier one
+            configVersion.accumulateAndGet(other.getConfigVersion(), Math::max);
+            return false;
+        }
+        return other.getConfigVersion() > configVersion.get();
+    }
+
+    /**
+     * Borrows from the current pool for the given settings, retrying once if that pool is retired in the meantime.
+     */
+    static Connection getConnection(ConcurrentMap<String, PoolVersion> pools, ConnectionSpec spec) throws SQLException {
+        PoolVersion current = current(pools, spec);
+        try {
+            return current.pool.getConnection();
+        } catch (SQLException e) {
+            if (!current.isRetired()) {
+                throw e;
+            }
+            return current(pools, spec).pool.getConnection();
+        }
+    }
+
+    /**
+     * Removes and retires the pool of a connection that no longer exists.
+     */
+    static void remove(ConcurrentMap<String, PoolVersion> pools, String connectionId) {
+        PoolVersion pool = pools.remove(connectionId);
+        if (pool != null) {
+            pool.retire();
+        }
+    }
+
+    /**
+     * Stops lending connections. Connections still borrowed are closed when they are returned.
+     */
+    void retire() {
+        int active = pool.getActive();
+        pool.retire();
+        if (active > 0) {
+            LOGGER.info("Pool version " + version + " of connection " + spec.getId() + " is draining " + active
+                    + " connection(s) still in use");
+        }
+    }
+
+    /**
+     * Opens the pool's minimum number of idle connections, at least one, so that the first query does not pay for
+     * loading the driver and logging in.
+     */
+    void prewarm() {
+        int count = Math.max(1, Math.min(spec.getMinIdle(), spec.getMaxConnections()));
+        status = "Opening " + count + " connection(s)";
+        long start = System.nanoTime();
+        List<Connection> opened = new ArrayList<>();
+        try {
+            while (opened.size() < count && !isRetired()) {
+                opened.add(pool.getConnection());
+            }
+            status = "Opened " + opened.size() + " connection(s) in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms";
+        } catch (SQLException e) {
+            status = "Failed to open connection: " + e.getMessage();
+            LOGGER.log(Level.WARNING, "Failed to pre-warm the pool of connection " + spec.getId(), e);
+        } finally {
+            for (Connection connection : opened) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    LOGGER.log(Level.FINE, "Failed to return pre-warmed connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return outcome of the last pre-warming, if any, and the connections currently open
+     */
+    String getStatus() {
+        String prewarmed = status;
+        return (prewarmed != null ? prewarmed + ". " : "") + "Pool version " + version + ": "
+                + getActive() + " active, " + getIdle() + " idle";
+    }
+
+    boolean isRetired() {
+        return pool.isRetired();
+    }
+
+    ConnectionSpec getSpec() {
+        return spec;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return number of connections currently lent out
+     */
+    int getActive() {
+        return pool.getActive();
+    }
+
+    int getIdle() {
+        return pool.getIdle();
+    }
+}
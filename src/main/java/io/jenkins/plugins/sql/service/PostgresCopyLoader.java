@@ -0,0 +1,68 @@
+package io.jenkins.plugins.sql.service;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Loads records with PostgreSQL {@code COPY ... FROM STDIN}, re-encoding them as CSV on the fly
+ */
+final class PostgresCopyLoader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private PostgresCopyLoader() {
+        // Utility class
+    }
+
+    static long load(Connection connection, String table, List<String> columns, RecordReader records)
+            throws SQLException, IOException {
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        CopyIn copyIn = copyManager.copyIn("COPY " + table + " (" + String.join(", ", columns)
+                + ") FROM STDIN WITH (FORMAT csv)");
+        try {
+            StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 1024);
+            Object[] record;
+            while ((record = records.next()) != null) {
+                for (int i = 0; i < record.length; i++) {
+                    if (i > 0) {
+                        buffer.append(',');
+                    }
+                    // unquoted empty is NULL in COPY csv, so every value is quoted
+                    if (record[i] != null) {
+                        buffer.append('"').append(record[i].toString().replace("\"", "\"\"")).append('"');
+                    }
+                }
+                buffer.append('\n');
+                if (buffer.length() >= BUFFER_SIZE) {
+                    write(copyIn, buffer);
+                }
+            }
+            write(copyIn, buffer);
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    /**
+     * Asks the server to cancel the {@code COPY} running on the connection. Safe to call from another thread.
+     */
+    static void cancel(Connection connection) throws SQLException {
+        connection.unwrap(BaseConnection.class).cancelQuery();
+    }
+
+    private static void write(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+}
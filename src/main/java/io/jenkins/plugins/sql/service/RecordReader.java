@@ -0,0 +1,23 @@
+package io.jenkins.plugins.sql.service;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Streaming source of records for {@link BulkLoader}
+ */
+public interface RecordReader extends Closeable {
+
+    /**
+     * @return names of the target columns, in the order of the values returned by {@link #next()}
+     */
+    List<String> getColumns() throws IOException;
+
+    /**
+     * @return the values of the next record, or {@code null} at the end of the input
+     */
+    @CheckForNull
+    Object[] next() throws IOException;
+}
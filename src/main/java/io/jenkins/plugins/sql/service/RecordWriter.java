@@ -0,0 +1,21 @@
+package io.jenkins.plugins.sql.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Streaming sink of records for {@link ResultExporter}
+ */
+public interface RecordWriter extends Closeable {
+
+    /**
+     * Called once, before the first record.
+     */
+    void start(List<String> columns) throws IOException;
+
+    /**
+     * @param values {@code null}, numbers, booleans or strings, in the order of the columns
+     */
+    void write(Object[] values) throws IOException;
+}
@@ -0,0 +1,252 @@
+package io.jenkins.plugins.sql.service;
+
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+import io.jenkins.plugins.sql.model.SqlResult;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Results of read-only queries run with {@code cacheTtl}, shared by every build on the controller.
+ * <p>
+ * Results are looked up by connection, normalized SQL text, bound parameters and row limit. The cache is bounded
+ * by the estimated size of the results it holds, set with the system property
+ * {@code io.jenkins.plugins.sql.service.ResultCache.maxBytes} (default 64 MiB), and evicts the least recently used
+ * results first. Cached results are read-only, so builds share them without copying.
+ */
+public final class ResultCache {
+    private static final ResultCache INSTANCE = new ResultCache(
+            SystemProperties.getLong(ResultCache.class.getName() + ".maxBytes", 64L << 20));
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long evictions;
+
+    ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static ResultCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Builds the cache key of a query.
+     *
+     * @throws IllegalArgumentException if the SQL is not a single query
+     */
+    public static Key key(String connectionId, String sql, @CheckForNull Object params, int maxRows,
+                          @CheckForNull DatabaseDriver driver) {
+        String query;
+        try (SqlScriptTokenizer statements = new SqlScriptTokenizer(new StringReader(sql), driver)) {
+            query = statements.next();
+            if (query == null || statements.next() != null || !SqlScriptTokenizer.isQuery(query)) {
+                throw new IllegalArgumentException("'cacheTtl' can only be used with a single SELECT statement");
+            }
+        } catch (IOException e) {
+            // cannot happen when reading from a string
+            throw new IllegalStateException(e);
+        }
+        return new Key(connectionId, normalize(query, driver), canonical(params), maxRows);
+    }
+
+    /**
+     * @return the cached result, or {@code null} if there is none or it expired
+     */
+    @CheckForNull
+    public synchronized SqlResult lookup(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            remove(key);
+            return null;
+        }
+        return entry.result;
+    }
+
+    public synchronized void put(Key key, SqlResult result, int ttlSeconds) {
+        long size = result.estimateBytes();
+        if (size > maxBytes / 4) {
+            // a single large result would flush everything else
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(result, size, System.nanoTime() + ttlSeconds * 1_000_000_000L));
+        bytes += size;
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().size;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the results of a connection, e.g. because it now points to another database.
+     */
+    public synchronized void invalidate(String connectionId) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> entry = it.next();
+            if (entry.getKey().connectionId.equals(connectionId)) {
+                bytes -= entry.getValue().size;
+                it.remove();
+            }
+        }
+    }
+
+    private void remove(Key key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.size;
+        }
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return estimated size of the cached results
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Collapses whitespace outside of quotes and comments, so that differently indented copies of a query share
+     * their result. The line break that ends a line comment is kept, since the text after it is part of the query.
+     */
+    static String normalize(String sql, @CheckForNull DatabaseDriver dialect) {
+        boolean backslashEscapes = dialect != null && dialect.isBackslashEscapes();
+        boolean hashComments = dialect != null && dialect.isHashComments();
+        StringBuilder normalized = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean comment = false;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (comment) {
+                if (c == '\n' || c == '\r') {
+                    comment = false;
+                    normalized.append('\n');
+                } else {
+                    normalized.append(c);
+                }
+            } else if (quote != 0) {
+                normalized.append(c);
+                if (c == '\\' && backslashEscapes && i + 1 < sql.length()) {
+                    normalized.append(sql.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                int last = normalized.length() - 1;
+                if (space && last >= 0 && normalized.charAt(last) != '\n') {
+                    normalized.append(' ');
+                }
+                space = false;
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                } else if (c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-' || c == '#' && hashComments) {
+                    comment = true;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Copies parameters into plain collections with strings in place of other character sequences, so that a
+     * GString and a String with the same text give the same key
+     */
+    @CheckForNull
+    private static Object canonical(@CheckForNull Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> map = new TreeMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(String.valueOf(entry.getKey()), canonical(entry.getValue()));
+            }
+            return map;
+        }
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                list.add(canonical(element));
+            }
+            return list;
+        }
+        return value instanceof CharSequence ? value.toString() : value;
+    }
+
+    public static final class Key {
+        private final String connectionId;
+        private final String sql;
+        @CheckForNull
+        private final Object params;
+        private final int maxRows;
+        private final int hash;
+
+        private Key(String connectionId, String sql, @CheckForNull Object params, int maxRows) {
+            this.connectionId = connectionId;
+            this.sql = sql;
+            this.params = params;
+            this.maxRows = maxRows;
+            this.hash = Objects.hash(connectionId, sql, params, maxRows);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            return maxRows == that.maxRows && connectionId.equals(that.connectionId) && sql.equals(that.sql)
+                    && Objects.equals(params, that.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return connectionId + ": " + sql;
+        }
+    }
+
+    private static final class Entry {
+        private final SqlResult result;
+        private final long size;
+        private final long expiresAt;
+
+        Entry(SqlResult result, long size, long expiresAt) {
+            this.result = result;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package io.jenkins.plugins.sql.service;
+
+import io.jenkins.plugins.sql.metrics.ConnectionMetrics;
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams the rows of a query into a {@link RecordWriter} as the driver fetches them, so that the size of an
+ * export is not bounded by memory.
+ */
+public class ResultExporter {
+    private static final Logger LOGGER = Logger.getLogger(ResultExporter.class.getName());
+    private static final long PROGRESS_INTERVAL = 1_000_000;
+
+    private final int fetchSize;
+    private final int timeoutSeconds;
+    private final ConnectionMetrics metrics;
+    private final PrintStream logger;
+    @CheckForNull
+    private volatile Statement running;
+    private volatile boolean cancelled;
+
+    /**
+     * @param fetchSize      rows per round trip, 0 for the driver's streaming default
+     * @param timeoutSeconds query timeout, 0 for none
+     */
+    public ResultExporter(int fetchSize, int timeoutSeconds, ConnectionMetrics metrics, PrintStream logger) {
+        this.fetchSize = fetchSize;
+        this.timeoutSeconds = timeoutSeconds;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    /**
+     * @param params values for the placeholders of the query, see {@link SqlParameters}, or {@code null}
+     * @return number of rows exported
+     */
+    public long export(Connection connection, @CheckForNull DatabaseDriver driver, String sql,
+                       @CheckForNull Object params, RecordWriter writer) throws SQLException, IOException {
+        // PostgreSQL only streams inside a transaction
+        boolean cursorTransaction = driver != null && driver.isCursorFetchTransactional() && connection.getAutoCommit();
+        if (cursorTransaction) {
+            connection.setAutoCommit(false);
+        }
+        try {
+            if (params != null) {
+                SqlParameters parameters = SqlParameters.parse(sql, params, driver);
+                try (PreparedStatement statement = DatabaseService.prepareStatement(connection, parameters.getSql(),
+                        driver, fetchSize, 0, timeoutSeconds)) {
+                    setRunning(statement);
+                    parameters.bind(statement, params);
+                    long start = System.nanoTime();
+                    ResultSet resultSet = statement.executeQuery();
+                    metrics.getExecution().recordSince(start);
+                    return copy(resultSet, writer);
+                }
+            }
+            try (Statement statement = DatabaseService.createStatement(connection, driver, fetchSize, 0, timeoutSeconds)) {
+                setRunning(statement);
+                long start = System.nanoTime();
+                ResultSet resultSet = statement.executeQuery(sql);
+                metrics.getExecution().recordSince(start);
+                return copy(resultSet, writer);
+            }
+        } catch (SQLException e) {
+            if (!cancelled) {
+                metrics.recordFailure(e);
+            }
+            throw e;
+        } finally {
+            running = null;
+            if (cursorTransaction) {
+                // the export only read, nothing to commit
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Cancels the running query on the database, or the next one as soon as it is created.
+     */
+    public void cancel() {
+        cancelled = true;
+        cancelRunning();
+    }
+
+    private void setRunning(Statement statement) {
+        running = statement;
+        if (cancelled) {
+            cancelRunning();
+        }
+    }
+
+    private void cancelRunning() {
+        Statement statement = running;
+        if (statement != null) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Failed to cancel export query", e);
+            }
+        }
+    }
+
+    private long copy(ResultSet resultSet, RecordWriter writer) throws SQLException, IOException {
+        long start = System.nanoTime();
+        long rows = 0;
+        try (ResultSet results = resultSet) {
+            ResultSetMetaData metaData = results.getMetaData();
+            int columnCount = metaData.getColumnCount();
+            List<String> columns = new ArrayList<>(columnCount);
+            for (int i = 1; i <= columnCount; i++) {
+                columns.add(metaData.getColumnLabel(i));
+            }
+            writer.start(columns);
+
+            Object[] values = new Object[columnCount];
+            while (results.next()) {
+                if (cancelled) {
+                    throw new SQLException("SQL export was cancelled");
+                }
+                for (int i = 0; i < columnCount; i++) {
+                    values[i] = value(results.getObject(i + 1));
+                }
+                writer.write(values);
+                if (++rows % PROGRESS_INTERVAL == 0) {
+                    logger.println("Exported " + rows + " row(s)...");
+                }
+            }
+        } finally {
+            metrics.getFetch().recordSince(start);
+            metrics.addRows(rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Converts a JDBC value to what a {@link RecordWriter} accepts. Binary values are written as Base64.
+     */
+    @CheckForNull
+    private static Object value(@CheckForNull Object value) throws SQLException {
+        if (value == null || value instanceof Number || value instanceof Boolean || value instanceof String) {
+            return value;
+        }
+        if (value instanceof byte[]) {
+            return Base64.getEncoder().encodeToString((byte[]) value);
+        }
+        if (value instanceof Clob) {
+            Clob clob = (Clob) value;
+            try {
+                return clob.getSubString(1, (int) clob.length());
+            } finally {
+                clob.free();
+            }
+        }
+        if (value instanceof Blob) {
+            Blob blob = (Blob) value;
+            try {
+                return Base64.getEncoder().encodeToString(blob.getBytes(1, (int) blob.length()));
+            } finally {
+                blob.free();
+            }
+        }
+        return value.toString();
+    }
+}
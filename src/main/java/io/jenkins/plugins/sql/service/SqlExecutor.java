@@ -0,0 +1,58 @@
+package io.jenkins.plugins.sql.service;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+import java.io.PrintStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded thread pool running the database work of pipeline steps, so that no step blocks the pipeline VM and a
+ * burst of parallel branches cannot create an unbounded number of threads. Work beyond the limit waits in a queue.
+ * <p>
+ * The number of threads is set with the system property
+ * {@code io.jenkins.plugins.sql.service.SqlExecutor.maxThreads} (default 32).
+ */
+public final class SqlExecutor {
+    private static final int MAX_THREADS = Math.max(1,
+            SystemProperties.getInteger(SqlExecutor.class.getName() + ".maxThreads", 32));
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new NamingThreadFactory(new DaemonThreadFactory(), "SqlExecutor"));
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private SqlExecutor() {
+        // Utility class
+    }
+
+    /**
+     * Queues the task, telling the build log when it has to wait for a thread.
+     */
+    public static Future<?> submit(Runnable task, PrintStream logger) {
+        int active = executor.getActiveCount();
+        if (active >= MAX_THREADS) {
+            logger.println("Waiting for a free SQL execution thread (" + active + " of " + MAX_THREADS
+                    + " busy, " + executor.getQueue().size() + " queued)");
+        }
+        return executor.submit(task);
+    }
+
+    public static int getMaxThreads() {
+        return MAX_THREADS;
+    }
+
+    public static int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public static int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+}
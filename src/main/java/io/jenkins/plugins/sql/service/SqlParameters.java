@@ -0,0 +1,144 @@
+package io.jenkins.plugins.sql.service;
+
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+
+import javax.annotation.CheckForNull;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binds pipeline values to a {@link PreparedStatement}.
+ * <p>
+ * A list binds to the {@code ?} placeholders in order. A map binds to {@code :name} placeholders, which are
+ * rewritten to {@code ?}; string literals, quoted identifiers, comments and PostgreSQL {@code ::} casts are
+ * left untouched, following the quoting and comment rules of the database as {@link SqlScriptTokenizer} does.
+ * A value without a placeholder or a placeholder without a value is rejected before the statement runs.
+ */
+public final class SqlParameters {
+
+    private final String sql;
+    private final List<String> names;
+
+    private SqlParameters(String sql, List<String> names) {
+        this.sql = sql;
+        this.names = names;
+    }
+
+    /**
+     * @param params  a {@link List} of positional values or a {@link Map} of named values
+     * @param dialect the database the statement is written for, or {@code null} for standard SQL
+     * @throws IllegalArgumentException if the values do not match the placeholders of the statement
+     */
+    public static SqlParameters parse(String sql, Object params, @CheckForNull DatabaseDriver dialect) {
+        BitSet code = SqlScriptTokenizer.codeCharacters(sql, dialect);
+        if (params instanceof Map) {
+            SqlParameters parameters = parseNamed(sql, code);
+            parameters.check((Map<?, ?>) params);
+            return parameters;
+        }
+        if (params instanceof List) {
+            checkPositional(sql, code, (List<?>) params);
+            return new SqlParameters(sql, Collections.emptyList());
+        }
+        throw new IllegalArgumentException("'params' must be a list or a map, got "
+                + (params != null ? params.getClass().getName() : "null"));
+    }
+
+    /**
+     * @return the statement text with every parameter as a JDBC {@code ?} placeholder
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public void bind(PreparedStatement statement, Object params) throws SQLException {
+        if (params instanceof Map) {
+            Map<?, ?> values = (Map<?, ?>) params;
+            for (int i = 0; i < names.size(); i++) {
+                setValue(statement, i + 1, values.get(names.get(i)));
+            }
+        } else {
+            List<?> values = (List<?>) params;
+            for (int i = 0; i < values.size(); i++) {
+                setValue(statement, i + 1, values.get(i));
+            }
+        }
+    }
+
+    private static void setValue(PreparedStatement statement, int index, @CheckForNull Object value) throws SQLException {
+        if (value instanceof CharSequence) {
+            // Groovy GStrings are not Strings
+            statement.setString(index, value.toString());
+        } else {
+            statement.setObject(index, value);
+        }
+    }
+
+    private void check(Map<?, ?> values) {
+        for (String name : names) {
+            if (!values.containsKey(name)) {
+                throw new IllegalArgumentException("No value given for parameter :" + name);
+            }
+        }
+        Set<String> used = new HashSet<>(names);
+        for (Object name : values.keySet()) {
+            if (!used.contains(String.valueOf(name))) {
+                throw new IllegalArgumentException("Parameter :" + name + " is not used in the statement");
+            }
+        }
+    }
+
+    private static void checkPositional(String sql, BitSet code, List<?> values) {
+        int placeholders = 0;
+        for (int i = code.nextSetBit(0); i >= 0; i = code.nextSetBit(i + 1)) {
+            if (sql.charAt(i) == '?') {
+                placeholders++;
+            }
+        }
+        if (values.size() < placeholders) {
+            throw new IllegalArgumentException("No value given for placeholder " + (values.size() + 1) + " of the "
+                    + placeholders + " in the statement");
+        }
+        if (values.size() > placeholders) {
+            throw new IllegalArgumentException("Value " + (placeholders + 1) + " has no placeholder, the statement "
+                    + "has only " + placeholders);
+        }
+    }
+
+    private static SqlParameters parseNamed(String sql, BitSet code) {
+        StringBuilder jdbcSql = new StringBuilder(sql.length());
+        List<String> names = new ArrayList<>();
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (!code.get(i)) {
+                jdbcSql.append(c);
+                i++;
+            } else if (c == ':' && i + 1 < length && sql.charAt(i + 1) == ':') {
+                jdbcSql.append("::");
+                i += 2;
+            } else if (c == ':' && i + 1 < length && code.get(i + 1)
+                    && Character.isJavaIdentifierStart(sql.charAt(i + 1))) {
+                int end = i + 1;
+                while (end < length && code.get(end) && Character.isJavaIdentifierPart(sql.charAt(end))) {
+                    end++;
+                }
+                names.add(sql.substring(i + 1, end));
+                jdbcSql.append('?');
+                i = end;
+            } else {
+                jdbcSql.append(c);
+                i++;
+            }
+        }
+        return new SqlParameters(jdbcSql.toString(), names);
+    }
+}
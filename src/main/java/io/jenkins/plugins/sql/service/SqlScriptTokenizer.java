@@ -0,0 +1,409 @@
+package io.jenkins.plugins.sql.service;
+
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the statements of a SQL script one at a time, so that only the current statement is held in memory.
+ * <p>
+ * Delimiters inside string literals, quoted identifiers and comments are ignored. Depending on the
+ * {@link DatabaseDriver} the script was written for, the tokenizer also understands backslash escapes and
+ * {@code #} comments (MySQL), nested block comments and {@code $tag$} quoting (PostgreSQL), {@code DELIMITER}
+ * lines (MySQL client), {@code GO} lines and procedure bodies (SQL Server), and {@code /} lines and PL/SQL
+ * blocks (Oracle). Without a driver only standard SQL quoting and comments, plus {@code DELIMITER} lines, are
+ * recognized.
+ */
+public class SqlScriptTokenizer implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Longest line inspected for a {@code DELIMITER}, {@code GO} or {@code /} command
+     */
+    private static final int MAX_COMMAND_LENGTH = 256;
+    private static final int MAX_DOLLAR_TAG_LENGTH = 64;
+    private static final Pattern DELIMITER_COMMAND = Pattern.compile("\\s*DELIMITER\\s+(\\S+)\\s*", Pattern.CASE_INSENSITIVE);
+
+    private final Reader reader;
+    @CheckForNull
+    private final DatabaseDriver dialect;
+    @CheckForNull
+    private final Pattern separatorCommand;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private String delimiter = ";";
+
+    /**
+     * @param dialect the database the script is written for, or {@code null} for standard SQL
+     */
+    public SqlScriptTokenizer(Reader reader, @CheckForNull DatabaseDriver dialect) {
+        this.reader = reader;
+        this.dialect = dialect;
+        String separator = dialect != null ? dialect.getBatchSeparator() : null;
+        this.separatorCommand = separator != null
+                ? Pattern.compile("\\s*" + Pattern.quote(separator) + "\\s*", Pattern.CASE_INSENSITIVE)
+                : null;
+    }
+
+    /**
+     * @return the next statement without its delimiter and surrounding whitespace or leading comments,
+     * or {@code null} at the end of the script
+     */
+    @CheckForNull
+    public String next() throws IOException {
+        StringBuilder statement = new StringBuilder();
+        // index of the first character that is not whitespace or comment, -1 while there is none
+        int codeStart = -1;
+        Boolean proceduralBlock = null;
+        boolean lineStart = true;
+        while (true) {
+            if (lineStart) {
+                lineStart = false;
+                String line = peekLine();
+                if (line != null && codeStart < 0 && isDelimiterCommandAllowed()) {
+                    Matcher matcher = DELIMITER_COMMAND.matcher(line);
+                    if (matcher.matches()) {
+                        delimiter = matcher.group(1);
+                        skipLine();
+                        lineStart = true;
+                        continue;
+                    }
+                }
+                if (line != null && separatorCommand != null && separatorCommand.matcher(line).matches()) {
+                    skipLine();
+                    if (codeStart >= 0) {
+                        return finish(statement, codeStart);
+                    }
+                    statement.setLength(0);
+                    lineStart = true;
+                    continue;
+                }
+            }
+
+            int c = peek(0);
+            if (c < 0) {
+                return codeStart >= 0 ? finish(statement, codeStart) : null;
+            }
+            if (c == delimiter.charAt(0) && startsWith(delimiter)) {
+                if (proceduralBlock == null && codeStart >= 0) {
+                    proceduralBlock = isProceduralBlock(statement.substring(codeStart));
+                }
+                if (!Boolean.TRUE.equals(proceduralBlock)) {
+                    skip(delimiter.length());
+                    if (codeStart >= 0) {
+                        return finish(statement, codeStart);
+                    }
+                    statement.setLength(0);
+                    continue;
+                }
+            }
+
+            int start = statement.length();
+            Token token = copyToken(statement, c);
+            boolean code = token == Token.QUOTED || token == Token.CHARACTER && !Character.isWhitespace(c);
+            lineStart = token == Token.CHARACTER && c == '\n';
+            if (code && codeStart < 0) {
+                codeStart = start;
+            }
+        }
+    }
+
+    /**
+     * Finds the characters of a single statement that are SQL code, by the same rules the statements of a script are
+     * split by. Characters of string literals, quoted identifiers and comments are not code.
+     *
+     * @param dialect the database the statement is written for, or {@code null} for standard SQL
+     * @return the indexes of the characters of the statement that are code
+     */
+    public static BitSet codeCharacters(String statement, @CheckForNull DatabaseDriver dialect) {
+        BitSet code = new BitSet(statement.length());
+        try (SqlScriptTokenizer tokenizer = new SqlScriptTokenizer(new StringReader(statement), dialect)) {
+            // every character read is copied, so positions in the copy are positions in the statement
+            StringBuilder copy = new StringBuilder(statement.length());
+            int c;
+            while ((c = tokenizer.peek(0)) >= 0) {
+                int start = copy.length();
+                if (tokenizer.copyToken(copy, c) == Token.CHARACTER) {
+                    code.set(start, copy.length());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Reading a string cannot fail", e);
+        }
+        return code;
+    }
+
+    private enum Token {
+        /**
+         * String literal, quoted identifier or dollar-quoted body
+         */
+        QUOTED,
+        COMMENT,
+        /**
+         * Any other single character
+         */
+        CHARACTER
+    }
+
+    /**
+     * Copies the token starting with the character {@code c} at the current position.
+     */
+    private Token copyToken(StringBuilder statement, int c) throws IOException {
+        if (c == '\'' || c == '"' || c == '`') {
+            copyQuoted(statement, (char) c, c != '`' && dialect != null && dialect.isBackslashEscapes());
+            return Token.QUOTED;
+        } else if (c == '[' && dialect == DatabaseDriver.SQLSERVER) {
+            copyQuoted(statement, ']', false);
+            return Token.QUOTED;
+        } else if (c == '-' && peek(1) == '-' || c == '#' && dialect != null && dialect.isHashComments()) {
+            copyLineComment(statement);
+            return Token.COMMENT;
+        } else if (c == '/' && peek(1) == '*') {
+            copyBlockComment(statement);
+            return Token.COMMENT;
+        } else if (c == '$' && dialect != null && dialect.isDollarQuoting() && !followsIdentifier(statement)) {
+            String tag = peekDollarTag();
+            if (tag != null) {
+                copyDollarQuoted(statement, tag);
+                return Token.QUOTED;
+            }
+        }
+        statement.append((char) read());
+        return Token.CHARACTER;
+    }
+
+    /**
+     * Whether the statement is expected to produce a result set
+     */
+    public static boolean isQuery(String sql) {
+        String keyword = sql.trim();
+        int end = 0;
+        while (end < keyword.length() && Character.isLetter(keyword.charAt(end))) {
+            end++;
+        }
+        switch (keyword.substring(0, end).toUpperCase(Locale.ROOT)) {
+            case "SELECT":
+            case "WITH":
+            case "VALUES":
+            case "TABLE":
+            case "SHOW":
+            case "DESCRIBE":
+            case "EXPLAIN":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static String finish(StringBuilder statement, int codeStart) {
+        return statement.substring(codeStart).trim();
+    }
+
+    private boolean isDelimiterCommandAllowed() {
+        return dialect == null || dialect.isDelimiterCommand();
+    }
+
+    /**
+     * PL/SQL blocks and T-SQL procedure bodies run up to the batch separator, semicolons included.
+     * Only applies while the delimiter is a semicolon.
+     */
+    private boolean isProceduralBlock(String statement) {
+        Pattern pattern = dialect != null ? dialect.getProceduralBlockPattern() : null;
+        return pattern != null && delimiter.equals(";") && pattern.matcher(statement).matches();
+    }
+
+    private void copyQuoted(StringBuilder statement, char close, boolean backslashEscapes) throws IOException {
+        statement.append((char) read());
+        int c;
+        while ((c = read()) >= 0) {
+            statement.append((char) c);
+            if (backslashEscapes && c == '\\') {
+                int escaped = read();
+                if (escaped < 0) {
+                    return;
+                }
+                statement.append((char) escaped);
+            } else if (c == close) {
+                // a doubled quote is an escaped quote; the next call copies the rest of the literal
+                return;
+            }
+        }
+    }
+
+    private void copyLineComment(StringBuilder statement) throws IOException {
+        int c;
+        // the newline is left for the caller, which tracks line starts
+        while ((c = peek(0)) >= 0 && c != '\n') {
+            statement.append((char) read());
+        }
+    }
+
+    private void copyBlockComment(StringBuilder statement) throws IOException {
+        boolean nested = dialect != null && dialect.isNestedComments();
+        statement.append((char) read()).append((char) read());
+        int depth = 1;
+        int c;
+        while (depth > 0 && (c = read()) >= 0) {
+            statement.append((char) c);
+            if (c == '*' && peek(0) == '/') {
+                statement.append((char) read());
+                depth--;
+            } else if (nested && c == '/' && peek(0) == '*') {
+                statement.append((char) read());
+                depth++;
+            }
+        }
+    }
+
+    private void copyDollarQuoted(StringBuilder statement, String tag) throws IOException {
+        statement.append(tag);
+        skip(tag.length());
+        int bodyStart = statement.length();
+        int c;
+        while ((c = read()) >= 0) {
+            statement.append((char) c);
+            if (c == '$' && endsWith(statement, tag, bodyStart)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean endsWith(StringBuilder statement, String tag, int bodyStart) {
+        int offset = statement.length() - tag.length();
+        if (offset < bodyStart) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (statement.charAt(offset + i) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the {@code $tag$} opening a dollar-quoted string at the current position, or {@code null}
+     */
+    @CheckForNull
+    private String peekDollarTag() throws IOException {
+        for (int i = 1; i <= MAX_DOLLAR_TAG_LENGTH; i++) {
+            int c = peek(i);
+            if (c == '$') {
+                StringBuilder tag = new StringBuilder(i + 1);
+                for (int j = 0; j <= i; j++) {
+                    tag.append((char) peek(j));
+                }
+                return tag.toString();
+            }
+            boolean valid = i == 1 ? c >= 0 && (Character.isLetter(c) || c == '_')
+                    : c >= 0 && (Character.isLetterOrDigit(c) || c == '_');
+            if (!valid) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@code $} inside an identifier or after a positional parameter does not open a quote
+     */
+    private static boolean followsIdentifier(StringBuilder statement) {
+        if (statement.length() == 0) {
+            return false;
+        }
+        char previous = statement.charAt(statement.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$';
+    }
+
+    /**
+     * @return the current line without its line terminator, or {@code null} if it is too long to be a command
+     */
+    @CheckForNull
+    private String peekLine() throws IOException {
+        for (int i = 0; i <= MAX_COMMAND_LENGTH; i++) {
+            int c = peek(i);
+            if (c < 0 || c == '\n') {
+                StringBuilder line = new StringBuilder(i);
+                for (int j = 0; j < i; j++) {
+                    line.append((char) peek(j));
+                }
+                return line.toString();
+            }
+        }
+        return null;
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        while ((c = read()) >= 0 && c != '\n') {
+            // discard
+        }
+    }
+
+    private boolean startsWith(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            if (peek(i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the character {@code offset} positions ahead without consuming it, or -1 past the end of input
+     */
+    private int peek(int offset) throws IOException {
+        if (position + offset >= limit && !fill(offset + 1)) {
+            return -1;
+        }
+        return buffer[position + offset];
+    }
+
+    private int read() throws IOException {
+        int c = peek(0);
+        if (c >= 0) {
+            position++;
+        }
+        return c;
+    }
+
+    private void skip(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            read();
+        }
+    }
+
+    /**
+     * Makes at least {@code needed} characters available from the current position, unless the input ends first.
+     */
+    private boolean fill(int needed) throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while (limit < needed && !endOfInput) {
+            int count = reader.read(buffer, limit, buffer.length - limit);
+            if (count < 0) {
+                endOfInput = true;
+            } else {
+                limit += count;
+            }
+        }
+        return limit >= needed;
+    }
+}
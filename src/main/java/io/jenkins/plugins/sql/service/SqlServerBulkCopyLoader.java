@@ -0,0 +1,115 @@
+package io.jenkins.plugins.sql.service;
+
+import com.microsoft.sqlserver.jdbc.ISQLServerBulkData;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopyOptions;
+import com.microsoft.sqlserver.jdbc.SQLServerConnection;
+import com.microsoft.sqlserver.jdbc.SQLServerException;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads records with the SQL Server bulk copy API
+ */
+final class SqlServerBulkCopyLoader {
+
+    private SqlServerBulkCopyLoader() {
+        // Utility class
+    }
+
+    static long load(Connection connection, String table, List<String> columns, BulkLoader.TargetColumns target,
+                     RecordReader records, int batchSize) throws SQLException {
+        RecordBulkData data = new RecordBulkData(columns, target, records);
+        SQLServerBulkCopyOptions options = new SQLServerBulkCopyOptions();
+        options.setBatchSize(batchSize);
+        options.setBulkCopyTimeout(0);
+
+        try (SQLServerBulkCopy bulkCopy = new SQLServerBulkCopy(connection.unwrap(SQLServerConnection.class))) {
+            bulkCopy.setBulkCopyOptions(options);
+            bulkCopy.setDestinationTableName(table);
+            for (int i = 0; i < columns.size(); i++) {
+                bulkCopy.addColumnMapping(i + 1, columns.get(i));
+            }
+            bulkCopy.writeToServer(data);
+        }
+        return data.rows;
+    }
+
+    private static class RecordBulkData implements ISQLServerBulkData {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> columns;
+        private final transient BulkLoader.TargetColumns target;
+        private final transient RecordReader records;
+        private transient Object[] current;
+        private long rows;
+
+        RecordBulkData(List<String> columns, BulkLoader.TargetColumns target, RecordReader records) {
+            this.columns = columns;
+            this.target = target;
+            this.records = records;
+        }
+
+        @Override
+        public Set<Integer> getColumnOrdinals() {
+            Set<Integer> ordinals = new LinkedHashSet<>();
+            for (int i = 1; i <= columns.size(); i++) {
+                ordinals.add(i);
+            }
+            return ordinals;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns.get(column - 1);
+        }
+
+        @Override
+        public int getColumnType(int column) {
+            return target.types[column - 1];
+        }
+
+        @Override
+        public int getPrecision(int column) {
+            return target.precisions[column - 1];
+        }
+
+        @Override
+        public int getScale(int column) {
+            return target.scales[column - 1];
+        }
+
+        @Override
+        public Object[] getRowData() throws SQLServerException {
+            Object[] values = new Object[current.length];
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    values[i] = BulkLoader.convert(current[i], target.types[i]);
+                } catch (IllegalArgumentException e) {
+                    throw new SQLServerException("Cannot convert value of column " + columns.get(i)
+                            + " in row " + rows + ": " + e.getMessage(), e);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public boolean next() throws SQLServerException {
+            try {
+                current = records.next();
+            } catch (IOException e) {
+                throw new SQLServerException("Failed to read record " + (rows + 1) + ": " + e.getMessage(), e);
+            }
+            if (current == null) {
+                return false;
+            }
+            rows++;
+            return true;
+        }
+    }
+}
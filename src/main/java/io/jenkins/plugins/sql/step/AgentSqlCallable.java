@@ -0,0 +1,109 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.model.TaskListener;
+import io.jenkins.plugins.sql.service.AgentDataSources;
+import io.jenkins.plugins.sql.service.ConnectionSpec;
+import jenkins.security.MasterToSlaveCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link SqlStep} script on the agent that owns the workspace, reading the script file locally and
+ * borrowing connections from the agent's own pools.
+ */
+class AgentSqlCallable extends MasterToSlaveCallable<Object, Exception> {
+    private static final long serialVersionUID = 1L;
+    /**
+     * Scripts running in this agent JVM, by execution ID
+     */
+    private static final ConcurrentMap<String, SqlScriptRunner> running = new ConcurrentHashMap<>();
+    /**
+     * Executions cancelled before their call reached the agent, with the {@link System#nanoTime()} of the
+     * cancellation. A cancellation that arrives after its call finished is never claimed, so entries expire.
+     */
+    private static final ConcurrentMap<String, Long> cancelled = new ConcurrentHashMap<>();
+    private static final long CANCEL_EXPIRY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final String id;
+    private final ConnectionSpec connection;
+    private final SqlScriptRunner runner;
+    @CheckForNull
+    private final String sql;
+    @CheckForNull
+    private final String file;
+    private final TaskListener listener;
+
+    /**
+     * @param id   identifies the execution for {@link Cancel}
+     * @param sql  the script text, or {@code null} to read {@code file}
+     * @param file absolute path of the script on the agent
+     */
+    AgentSqlCallable(String id, ConnectionSpec connection, SqlScriptRunner runner, @CheckForNull String sql,
+                     @CheckForNull String file, TaskListener listener) {
+        this.id = id;
+        this.connection = connection;
+        this.runner = runner;
+        this.sql = sql;
+        this.file = file;
+        this.listener = listener;
+    }
+
+    @Override
+    public Object call() throws Exception {
+        running.put(id, runner);
+        if (cancelled.remove(id) != null) {
+            runner.cancel();
+        }
+        try (Reader script = sql != null
+                ? new StringReader(sql)
+                : new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+             Connection conn = AgentDataSources.getConnection(connection)) {
+            return runner.run(conn, connection.getDriver(), script, listener.getLogger());
+        } finally {
+            running.remove(id);
+        }
+    }
+
+    /**
+     * Cancels the statement of a script running on the agent
+     */
+    static class Cancel extends MasterToSlaveCallable<Void, RuntimeException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Cancel(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public Void call() {
+            SqlScriptRunner runner = running.get(id);
+            if (runner == null) {
+                expireCancellations();
+                cancelled.put(id, System.nanoTime());
+                // the call may have registered in the meantime
+                runner = running.get(id);
+            }
+            if (runner != null) {
+                cancelled.remove(id);
+                runner.cancel();
+            }
+            return null;
+        }
+
+        private static void expireCancellations() {
+            long now = System.nanoTime();
+            cancelled.values().removeIf(time -> now - time > CANCEL_EXPIRY_NANOS);
+        }
+    }
+}
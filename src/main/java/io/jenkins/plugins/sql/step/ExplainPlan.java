@@ -0,0 +1,136 @@
+package io.jenkins.plugins.sql.step;
+
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+import io.jenkins.plugins.sql.service.SqlParameters;
+
+import javax.annotation.CheckForNull;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Captures the execution plan of a statement in the dialect of its database, without running the statement again
+ */
+final class ExplainPlan {
+    private static final Logger LOGGER = Logger.getLogger(ExplainPlan.class.getName());
+    private static final Pattern EXPLAINABLE = Pattern.compile("(?is)\\s*(SELECT|WITH|INSERT|UPDATE|DELETE|MERGE)\\b.*");
+    static final int MAX_LENGTH = 64 * 1024;
+
+    private ExplainPlan() {
+    }
+
+    /**
+     * @param parameters the placeholders of {@code sql} if it ran as a prepared statement, or {@code null}
+     * @param params     the values bound to the placeholders
+     * @return the plan as text, or {@code null} if the statement cannot be explained or the database refused to
+     */
+    @CheckForNull
+    static String capture(Connection connection, @CheckForNull DatabaseDriver driver, String sql,
+                          @CheckForNull SqlParameters parameters, @CheckForNull Object params) {
+        if (!EXPLAINABLE.matcher(sql).matches()) {
+            return null;
+        }
+        String target = parameters != null ? parameters.getSql() : sql;
+        List<String> statements = driver != null
+                ? driver.getExplainStatements(target)
+                : Collections.singletonList("EXPLAIN " + target);
+        if (parameters != null && statements.size() != 1) {
+            // the values can only be bound to the one statement that holds the placeholders
+            return null;
+        }
+        Savepoint savepoint = null;
+        try {
+            // a failed EXPLAIN must not abort the transaction of the script
+            if (!connection.getAutoCommit()) {
+                savepoint = connection.setSavepoint();
+            }
+            StringBuilder plan = new StringBuilder();
+            try {
+                for (String statement : statements) {
+                    if (parameters != null) {
+                        try (PreparedStatement explain = connection.prepareStatement(statement)) {
+                            parameters.bind(explain, params);
+                            read(explain, explain.execute(), plan);
+                        }
+                    } else {
+                        try (Statement explain = connection.createStatement()) {
+                            read(explain, explain.execute(statement), plan);
+                        }
+                    }
+                }
+            } finally {
+                reset(connection, driver);
+            }
+            if (savepoint != null) {
+                connection.releaseSavepoint(savepoint);
+            }
+            if (plan.length() > MAX_LENGTH) {
+                plan.setLength(MAX_LENGTH);
+                plan.append("\n...");
+            }
+            return plan.toString();
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to capture the plan of a slow statement", e);
+            if (savepoint != null) {
+                try {
+                    connection.rollback(savepoint);
+                } catch (SQLException rollback) {
+                    LOGGER.log(Level.FINE, "Failed to roll back to the savepoint before the plan", rollback);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static void reset(Connection connection, @CheckForNull DatabaseDriver driver) throws SQLException {
+        String reset = driver != null ? driver.getExplainReset() : null;
+        if (reset == null) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(reset);
+        } catch (SQLException e) {
+            // the session would keep explaining instead of executing
+            LOGGER.log(Level.WARNING, "Failed to switch the session back from showing plans", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the rows of every result of the statement as tab separated lines, with a header line if there is more
+     * than one column.
+     */
+    private static void read(Statement statement, boolean hasResultSet, StringBuilder plan) throws SQLException {
+        while (hasResultSet || statement.getUpdateCount() != -1) {
+            if (hasResultSet) {
+                try (ResultSet rows = statement.getResultSet()) {
+                    ResultSetMetaData metaData = rows.getMetaData();
+                    int columnCount = metaData.getColumnCount();
+                    if (columnCount > 1) {
+                        for (int i = 1; i <= columnCount; i++) {
+                            plan.append(i > 1 ? "\t" : "").append(metaData.getColumnLabel(i));
+                        }
+                        plan.append('\n');
+                    }
+                    while (rows.next() && plan.length() <= MAX_LENGTH) {
+                        for (int i = 1; i <= columnCount; i++) {
+                            Object value = rows.getObject(i);
+                            plan.append(i > 1 ? "\t" : "").append(value != null ? value : "NULL");
+                        }
+                        plan.append('\n');
+                    }
+                }
+            }
+            hasResultSet = statement.getMoreResults();
+        }
+    }
+}
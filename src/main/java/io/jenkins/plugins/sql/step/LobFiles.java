@@ -0,0 +1,94 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.FilePath;
+import io.jenkins.plugins.sql.model.SqlResult;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Streams the large object values of one result into files of a workspace directory, named
+ * {@code step<S>-result<N>-row<R>-col<C>-<column>.bin} for binary and {@code .txt} (UTF-8) for character values. The
+ * result keeps the path of each file relative to the workspace.
+ * <p>
+ * The step number is unique within the build and the column number keeps columns of the same name apart, so no file
+ * of the build is overwritten.
+ */
+class LobFiles implements SqlResult.LobSink {
+    private final FilePath directory;
+    private final String path;
+    private final String prefix;
+    private int written;
+
+    /**
+     * @param directory the directory the files are written to, created if needed
+     * @param path      the directory relative to the workspace, as returned in the result
+     * @param step      number of the step within the build, see {@link LobStepCounter}
+     * @param result    number of the result within the step, to keep the file names of several results apart
+     */
+    LobFiles(FilePath directory, String path, int step, int result) {
+        this.directory = directory;
+        this.path = path;
+        this.prefix = "step" + step + "-result" + result;
+    }
+
+    @CheckForNull
+    @Override
+    public String write(ResultSet resultSet, int index, int row, String columnName, boolean binary)
+            throws SQLException {
+        String name = prefix + "-row" + (row + 1) + "-col" + index + "-"
+                + columnName.replaceAll("[^A-Za-z0-9_.-]", "_") + (binary ? ".bin" : ".txt");
+        try {
+            if (binary) {
+                try (InputStream in = resultSet.getBinaryStream(index)) {
+                    if (in == null) {
+                        return null;
+                    }
+                    try (OutputStream out = open(name)) {
+                        in.transferTo(out);
+                    }
+                }
+            } else {
+                try (Reader in = resultSet.getCharacterStream(index)) {
+                    if (in == null) {
+                        return null;
+                    }
+                    try (Writer out = new OutputStreamWriter(open(name), StandardCharsets.UTF_8)) {
+                        in.transferTo(out);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new SQLException("Failed to write column " + columnName + " to " + path + "/" + name, e);
+        }
+        written++;
+        return path + "/" + name;
+    }
+
+    private OutputStream open(String name) throws IOException {
+        try {
+            if (written == 0) {
+                directory.mkdirs();
+            }
+            return directory.child(name).write();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing " + name, e);
+        }
+    }
+
+    /**
+     * @return the number of files written so far
+     */
+    int getWritten() {
+        return written;
+    }
+}
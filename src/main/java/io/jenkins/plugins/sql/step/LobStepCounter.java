@@ -0,0 +1,45 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Numbers the {@code sqlQuery} steps of a build that write large objects to the workspace, so that the files of two
+ * steps with the same {@code lobDir} never share a name. Saved with the build, so that steps run after a restart keep
+ * counting.
+ */
+public class LobStepCounter extends InvisibleAction {
+    private static final Logger LOGGER = Logger.getLogger(LobStepCounter.class.getName());
+    private static final Object LOCK = new Object();
+
+    private int steps;
+
+    /**
+     * @return the number of the next step of the build that writes large objects, starting at 1
+     */
+    static int next(Run<?, ?> run) {
+        LobStepCounter counter;
+        synchronized (LOCK) {
+            counter = run.getAction(LobStepCounter.class);
+            if (counter == null) {
+                counter = new LobStepCounter();
+                run.addAction(counter);
+            }
+        }
+        int step = counter.increment();
+        try {
+            run.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the large object step count of " + run, e);
+        }
+        return step;
+    }
+
+    private synchronized int increment() {
+        return ++steps;
+    }
+}
@@ -0,0 +1,237 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import javax.annotation.CheckForNull;
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build log output of a {@link SqlStep} script. Lines are collected and written to the log in bulk, at the latest
+ * {@value #FLUSH_INTERVAL_MILLIS} ms after they were added, so that the log shows which statement of a long script is
+ * running. Long statements are shortened, and statements, rows and per-statement counts stop being printed once the
+ * step has used up its output budget. Summary lines are always printed.
+ * <p>
+ * Statements run in parallel write to a {@linkplain #statementLog() log of their own}, which shares the budget and
+ * adds its lines to the step's log as one block, so that the output of concurrent statements does not interleave.
+ * <p>
+ * The log mode selects what is printed:
+ * <ul>
+ *     <li>{@code full}: statements, per-statement counts and every row</li>
+ *     <li>{@code summary}: statements and per-statement counts, no rows</li>
+ *     <li>{@code sample:N}: like {@code full}, but at most N rows of each result</li>
+ *     <li>{@code none}: only the summary</li>
+ * </ul>
+ */
+final class QueryLog {
+    static final String FULL = "full";
+    static final String SUMMARY = "summary";
+    static final String SAMPLE = "sample:";
+    static final String NONE = "none";
+
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    static final long FLUSH_INTERVAL_MILLIS = 1000;
+    static final int MAX_STATEMENT_LENGTH = 1000;
+
+    @CheckForNull
+    private final PrintStream out;
+    @CheckForNull
+    private final QueryLog parent;
+    private final boolean statements;
+    private final int rowLimit;
+    private final long budget;
+    private final StringBuilder buffer = new StringBuilder();
+    private long used;
+    private boolean exhausted;
+    @CheckForNull
+    private ScheduledFuture<?> scheduledFlush;
+
+    QueryLog(PrintStream out, String mode, long budget) {
+        this.out = out;
+        this.parent = null;
+        this.statements = !NONE.equals(mode);
+        this.rowLimit = rowLimit(mode);
+        this.budget = budget;
+    }
+
+    private QueryLog(QueryLog parent) {
+        this.out = null;
+        this.parent = parent;
+        this.statements = parent.statements;
+        this.rowLimit = parent.rowLimit;
+        this.budget = parent.budget;
+    }
+
+    /**
+     * @return a log for the output of one statement, written to this log when it is {@linkplain #flush() flushed}.
+     * Not thread-safe itself, but any number of statement logs may be used concurrently.
+     */
+    QueryLog statementLog() {
+        return new QueryLog(this);
+    }
+
+    /**
+     * @return the number of rows of each result printed in the given mode
+     * @throws IllegalArgumentException if the mode is not valid
+     */
+    static int rowLimit(String mode) {
+        if (FULL.equals(mode)) {
+            return Integer.MAX_VALUE;
+        }
+        if (SUMMARY.equals(mode) || NONE.equals(mode)) {
+            return 0;
+        }
+        if (mode != null && mode.startsWith(SAMPLE)) {
+            try {
+                int rows = Integer.parseInt(mode.substring(SAMPLE.length()).trim());
+                if (rows > 0) {
+                    return rows;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+        }
+        throw new IllegalArgumentException("'logMode' must be one of full, summary, sample:N or none, not '" + mode + "'");
+    }
+
+    /**
+     * @return how many rows of each result are printed
+     */
+    int getRowLimit() {
+        return rowLimit;
+    }
+
+    /**
+     * Prints the statement about to run, shortened to {@value #MAX_STATEMENT_LENGTH} characters.
+     */
+    void statement(String sql) {
+        if (!statements) {
+            return;
+        }
+        if (sql.length() > MAX_STATEMENT_LENGTH) {
+            sql = sql.substring(0, MAX_STATEMENT_LENGTH) + " ... (" + (sql.length() - MAX_STATEMENT_LENGTH)
+                    + " more characters)";
+        }
+        limited("Executing: " + sql);
+    }
+
+    /**
+     * Prints a line about a single statement, such as its update count.
+     */
+    void detail(String line) {
+        if (statements) {
+            limited(line);
+        }
+    }
+
+    /**
+     * Prints a header or row of a result.
+     */
+    void row(CharSequence line) {
+        limited(line);
+    }
+
+    /**
+     * @return whether a row printed now would still show up in the log
+     */
+    boolean acceptsRows() {
+        return rowLimit > 0 && !(parent != null ? parent : this).isExhausted();
+    }
+
+    private synchronized boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Prints a line regardless of the mode and the budget.
+     */
+    void summary(String line) {
+        append(line);
+    }
+
+    private void limited(CharSequence line) {
+        if ((parent != null ? parent : this).take(line.length() + 1)) {
+            append(line);
+        }
+    }
+
+    /**
+     * Charges output to the budget of the step.
+     *
+     * @return whether the output may still be printed
+     */
+    private synchronized boolean take(int length) {
+        if (exhausted) {
+            return false;
+        }
+        used += length;
+        if (used > budget) {
+            exhausted = true;
+            append("... (build log limit of " + budget + " bytes reached for this step, further query output is not shown)");
+            return false;
+        }
+        return true;
+    }
+
+    private void append(CharSequence line) {
+        if (parent != null) {
+            buffer.append(line).append('\n');
+            return;
+        }
+        synchronized (this) {
+            buffer.append(line).append('\n');
+            flushIfDue();
+        }
+    }
+
+    private synchronized void flushIfDue() {
+        if (buffer.length() >= FLUSH_THRESHOLD) {
+            flush();
+        } else if (scheduledFlush == null) {
+            // a statement may run for a long time after its line was added, so waiting for more output is not enough
+            scheduledFlush = Flusher.INSTANCE.schedule(this::flush, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the buffered lines to the build log, or to the step's log for the log of a statement.
+     */
+    void flush() {
+        if (parent != null) {
+            if (buffer.length() > 0) {
+                parent.appendBlock(buffer);
+                buffer.setLength(0);
+            }
+            return;
+        }
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (buffer.length() > 0) {
+                out.print(buffer);
+                buffer.setLength(0);
+            }
+            out.flush();
+        }
+    }
+
+    private synchronized void appendBlock(CharSequence lines) {
+        buffer.append(lines);
+        flushIfDue();
+    }
+
+    /**
+     * Thread of the plugin's own rather than {@code jenkins.util.Timer}, which is not available when the script runs
+     * on an agent. Started on first use.
+     */
+    private static final class Flusher {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "QueryLogFlusher"));
+    }
+}
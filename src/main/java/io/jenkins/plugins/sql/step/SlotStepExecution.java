@@ -0,0 +1,166 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.AbortException;
+import hudson.model.Run;
+import io.jenkins.plugins.sql.service.ConnectionAdmission;
+import io.jenkins.plugins.sql.service.DatabaseService;
+import io.jenkins.plugins.sql.service.SqlExecutor;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+
+import javax.annotation.Nonnull;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Execution of a step that works on a database connection. The step waits for a slot on the connection without
+ * holding a thread, then does its work on the bounded {@link SqlExecutor} pool while it holds the slot.
+ * <p>
+ * Aborting the build gives up the place in the connection's queue, or drops the work if it has not started yet and
+ * {@linkplain #cancel(Throwable) cancels} it otherwise. The step cannot be resumed after a restart, as its database
+ * session is gone.
+ */
+abstract class SlotStepExecution extends StepExecution {
+    private static final long serialVersionUID = 1L;
+
+    private final transient String functionName;
+    private final transient String failure;
+    private transient volatile CompletableFuture<ConnectionAdmission.Permit> slot;
+    private transient volatile ConnectionAdmission.Permit permit;
+    private transient volatile Future<?> task;
+    private transient volatile boolean stopped;
+    private transient volatile String status;
+
+    /**
+     * @param functionName name of the step in a pipeline
+     * @param failure      message that a failed database call is reported with, such as {@code SQL export failed}
+     */
+    SlotStepExecution(StepContext context, String functionName, String failure) {
+        super(context);
+        this.functionName = functionName;
+        this.failure = failure;
+    }
+
+    /**
+     * Requests a slot on the connection and hands it to {@link #admitted} once it is granted. Fails right away if an
+     * enclosing {@code sqlEachRow} holds the same connection.
+     *
+     * @return {@code false}, the step completes asynchronously
+     */
+    final boolean startWhenAdmitted(String connectionId, PrintStream logger) throws Exception {
+        SqlRowContext enclosing = getContext().get(SqlRowContext.class);
+        if (enclosing != null && enclosing.holdsConnection(connectionId)) {
+            // waiting would deadlock once the enclosing loops hold every slot of the connection
+            throw new AbortException(functionName + " cannot use connection '" + connectionId
+                    + "' inside the body of sqlEachRow on the same connection, which holds it until the loop ends. "
+                    + "Use a second connection to the same database, or read the rows with sqlQuery first.");
+        }
+        status = "waiting for a slot on " + connectionId;
+        slot = DatabaseService.acquireSlot(connectionId, getContext().get(Run.class), logger);
+        slot.whenComplete((granted, error) -> {
+            if (error != null) {
+                if (!stopped) {
+                    logger.println(failure + ": " + error.getMessage());
+                    getContext().onFailure(new RuntimeException(failure, error));
+                }
+            } else if (stopped) {
+                granted.close();
+            } else {
+                admitted(granted, logger);
+            }
+        });
+        return false;
+    }
+
+    /**
+     * Runs {@link #run()} on the {@link SqlExecutor} while holding the slot, and completes the step with its result.
+     */
+    void admitted(ConnectionAdmission.Permit granted, PrintStream logger) {
+        status = "waiting for an SQL execution thread";
+        permit = granted;
+        task = SqlExecutor.submit(() -> {
+            try (ConnectionAdmission.Permit held = granted) {
+                Object result = run();
+                if (!stopped) {
+                    succeeded(result);
+                    getContext().onSuccess(result);
+                }
+            } catch (Throwable t) {
+                if (!stopped) {
+                    fail(t, logger);
+                }
+            }
+        }, logger);
+    }
+
+    /**
+     * Does the work of the step once it holds its slot. Database errors are reported with the failure message of
+     * the step, unless the step was stopped.
+     *
+     * @return the result of the step
+     */
+    abstract Object run() throws Exception;
+
+    /**
+     * Called with the result of {@link #run()} before the step completes, unless the step was stopped.
+     */
+    void succeeded(Object result) {
+    }
+
+    /**
+     * Cancels the work the step is doing, from the thread that stops the step.
+     *
+     * @return whether the step reports the abort itself; otherwise it fails with the cause right away
+     */
+    abstract boolean cancel(Throwable cause);
+
+    /**
+     * Fails the step, reporting database errors with the failure message of the step.
+     */
+    void fail(Throwable t, PrintStream logger) {
+        if (t instanceof SQLException) {
+            logger.println(failure + ": " + t.getMessage());
+            getContext().onFailure(new RuntimeException(failure, t));
+        } else {
+            getContext().onFailure(t);
+        }
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    void setStatus(String status) {
+        this.status = status;
+    }
+
+    @Override
+    public String getStatus() {
+        return status;
+    }
+
+    @Override
+    public void stop(@Nonnull Throwable cause) throws Exception {
+        stopped = true;
+        CompletableFuture<ConnectionAdmission.Permit> waiting = slot;
+        if (waiting != null) {
+            waiting.cancel(false);
+        }
+        Future<?> current = task;
+        if (current != null && current.cancel(false)) {
+            // never started, so it will not release the slot itself
+            permit.close();
+        }
+        if (!cancel(cause)) {
+            getContext().onFailure(cause);
+        }
+    }
+
+    @Override
+    public void onResume() {
+        getContext().onFailure(new AbortException(
+                functionName + " cannot be resumed after a restart because its database session was closed"));
+    }
+}
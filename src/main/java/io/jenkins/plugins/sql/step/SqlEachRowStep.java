@@ -0,0 +1,379 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.metrics.ConnectionMetrics;
+import io.jenkins.plugins.sql.metrics.SqlMetrics;
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+import io.jenkins.plugins.sql.model.SqlResult;
+import io.jenkins.plugins.sql.service.ConnectionAdmission;
+import io.jenkins.plugins.sql.service.DatabaseService;
+import io.jenkins.plugins.sql.service.SqlExecutor;
+import io.jenkins.plugins.sql.service.SqlParameters;
+import org.jenkinsci.plugins.workflow.steps.BodyExecution;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pipeline step that streams the rows of a query through its body, one row or one chunk of rows at a time.
+ * Only the current chunk is held in memory; the cursor stays open on the database until the result is
+ * exhausted, the body fails or the build is aborted.
+ */
+public class SqlEachRowStep extends Step {
+
+    private final String connectionId;
+    private final String sql;
+    private int chunkSize = 1;
+    private int fetchSize = 0;
+    private int timeoutSeconds = 0;
+    private Object params;
+
+    @DataBoundConstructor
+    public SqlEachRowStep(String connectionId, String sql) {
+        this.connectionId = connectionId;
+        this.sql = sql;
+    }
+
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @DataBoundSetter
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    @DataBoundSetter
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutSeconds(int timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    public Object getParams() {
+        return params;
+    }
+
+    @DataBoundSetter
+    public void setParams(Object params) {
+        this.params = params;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new SqlEachRowExecution(context, this);
+    }
+
+    public static class SqlEachRowExecution extends SlotStepExecution {
+        private static final long serialVersionUID = 1L;
+        private static final Logger LOGGER = Logger.getLogger(SqlEachRowExecution.class.getName());
+
+        private final transient SqlEachRowStep step;
+        private transient PrintStream logger;
+        private transient ConnectionAdmission.Permit permit;
+        private transient Connection connection;
+        private transient Statement statement;
+        private transient ResultSet resultSet;
+        private transient SqlResult columns;
+        private transient long rowCount;
+        private transient volatile BodyExecution body;
+
+        SqlEachRowExecution(StepContext context, SqlEachRowStep step) {
+            super(context, "sqlEachRow", "SQL execution failed");
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            if (step.sql == null || step.sql.trim().isEmpty()) {
+                throw new IllegalArgumentException("'sql' parameter must be provided");
+            }
+            if (step.chunkSize < 1) {
+                throw new IllegalArgumentException("'chunkSize' must be at least 1");
+            }
+            if (step.fetchSize < 0 || step.timeoutSeconds < 0) {
+                throw new IllegalArgumentException("'fetchSize' and 'timeoutSeconds' cannot be negative");
+            }
+
+            logger = getContext().get(TaskListener.class).getLogger();
+            logger.println("Using database connection: " + step.connectionId);
+            logger.println("Streaming rows from: " + step.sql.trim());
+
+            return startWhenAdmitted(step.connectionId, logger);
+        }
+
+        /**
+         * Holds the slot until the cursor is closed rather than until {@link #run()} returns.
+         */
+        @Override
+        void admitted(ConnectionAdmission.Permit granted, PrintStream logger) {
+            synchronized (this) {
+                permit = granted;
+            }
+            submit(this::run);
+        }
+
+        /**
+         * Opens the cursor and starts the body with the first chunk. The step completes once the cursor is exhausted.
+         */
+        @Override
+        Object run() throws Exception {
+            setStatus("executing on " + step.connectionId);
+            openCursor();
+            return null;
+        }
+
+        @Override
+        boolean cancel(Throwable cause) {
+            closeCursor(true);
+            BodyExecution current;
+            synchronized (this) {
+                current = body;
+            }
+            // a body that already finished cannot report the abort, so the step completes itself
+            return current != null && current.cancel(cause);
+        }
+
+        /**
+         * Runs database work on the {@link SqlExecutor} pool so that a slow fetch never blocks the pipeline VM.
+         */
+        private void submit(SqlTask task) {
+            SqlExecutor.submit(() -> {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    closeCursor(false);
+                    if (!isStopped()) {
+                        if (t instanceof SQLException) {
+                            SqlMetrics.forConnection(step.connectionId).recordFailure((SQLException) t);
+                        }
+                        fail(t, logger);
+                    }
+                }
+            }, logger);
+        }
+
+        private void openCursor() throws Exception {
+            Connection conn = DatabaseService.getConnection(step.connectionId);
+            synchronized (this) {
+                connection = conn;
+            }
+            DatabaseDriver driver = DatabaseService.getDatabaseDriver(step.connectionId);
+            if (driver != null && driver.isCursorFetchTransactional()) {
+                // the pool rolls back and restores auto-commit when the connection is returned
+                conn.setAutoCommit(false);
+            }
+            Statement stmt;
+            SqlParameters parameters = null;
+            if (step.params != null) {
+                parameters = SqlParameters.parse(step.sql, step.params, driver);
+                stmt = DatabaseService.prepareStatement(conn, parameters.getSql(), driver,
+                        step.fetchSize, 0, step.timeoutSeconds);
+            } else {
+                stmt = DatabaseService.createStatement(conn, driver, step.fetchSize, 0, step.timeoutSeconds);
+            }
+            synchronized (this) {
+                statement = stmt;
+            }
+            if (parameters != null) {
+                parameters.bind((PreparedStatement) stmt, step.params);
+            }
+            if (isStopped()) {
+                closeCursor(false);
+                return;
+            }
+
+            // not holding the lock while the query runs, so that stop() can cancel it
+            long start = System.nanoTime();
+            ResultSet rs = parameters != null ? ((PreparedStatement) stmt).executeQuery() : stmt.executeQuery(step.sql);
+            SqlMetrics.forConnection(step.connectionId).getExecution().recordSince(start);
+            synchronized (this) {
+                resultSet = rs;
+            }
+            columns = new SqlResult(rs.getMetaData());
+            nextChunk();
+        }
+
+        private void nextChunk() throws Exception {
+            ResultSet rs = resultSet;
+            if (isStopped() || rs == null) {
+                return;
+            }
+
+            setStatus("fetching rows from " + step.connectionId);
+            long start = System.nanoTime();
+            SqlResult rows = columns.emptyCopy();
+            while (rows.size() < step.chunkSize && rs.next()) {
+                rows.appendRow(rs);
+            }
+            rows.trimToSize();
+            ConnectionMetrics metrics = SqlMetrics.forConnection(step.connectionId);
+            metrics.getFetch().recordSince(start);
+            metrics.addRows(rows.size());
+
+            if (rows.isEmpty()) {
+                closeCursor(false);
+                logger.println("Processed " + rowCount + " row(s)");
+                getContext().onSuccess(rowCount);
+                return;
+            }
+
+            SqlRowContext rowContext = new SqlRowContext(rows, step.chunkSize > 1, rowCount, heldConnections());
+            rowCount += rows.size();
+            setStatus("running the body");
+            // stop() reads the body under the same lock, so it either sees the body or this sees it stopped
+            synchronized (this) {
+                if (isStopped()) {
+                    closeCursor(false);
+                    return;
+                }
+                body = getContext().newBodyInvoker()
+                        .withContext(rowContext)
+                        .withCallback(new RowCallback(this))
+                        .start();
+            }
+        }
+
+        private Set<String> heldConnections() throws Exception {
+            Set<String> held = new HashSet<>();
+            SqlRowContext enclosing = getContext().get(SqlRowContext.class);
+            if (enclosing != null && enclosing.getConnectionIds() != null) {
+                held.addAll(enclosing.getConnectionIds());
+            }
+            held.add(step.connectionId);
+            return held;
+        }
+
+        private void closeCursor(boolean cancel) {
+            Statement current;
+            synchronized (this) {
+                current = statement;
+            }
+            if (cancel && current != null) {
+                try {
+                    current.cancel();
+                } catch (SQLException e) {
+                    LOGGER.log(Level.FINE, "Failed to cancel statement", e);
+                }
+            }
+            synchronized (this) {
+                closeQuietly(resultSet);
+                closeQuietly(statement);
+                closeQuietly(connection);
+                closeQuietly(permit);
+                resultSet = null;
+                statement = null;
+                connection = null;
+                permit = null;
+            }
+        }
+
+        private static void closeQuietly(AutoCloseable closeable) {
+            if (closeable == null) {
+                return;
+            }
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to close JDBC resource", e);
+            }
+        }
+    }
+
+    private interface SqlTask {
+        void run() throws Exception;
+    }
+
+    private static class RowCallback extends BodyExecutionCallback {
+        private static final long serialVersionUID = 1L;
+
+        private final SqlEachRowExecution execution;
+
+        RowCallback(SqlEachRowExecution execution) {
+            this.execution = execution;
+        }
+
+        @Override
+        public void onSuccess(StepContext context, Object result) {
+            // the finished body can no longer be cancelled; stop() completes the step while the next chunk loads
+            execution.body = null;
+            execution.submit(execution::nextChunk);
+        }
+
+        @Override
+        public void onFailure(StepContext context, Throwable t) {
+            execution.closeCursor(false);
+            execution.getContext().onFailure(t);
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<Class<?>> getRequiredContext() {
+            Set<Class<?>> context = new HashSet<>();
+            context.add(TaskListener.class);
+            context.add(Run.class);
+            return context;
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "sqlEachRow";
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Iterate over SQL query rows";
+        }
+
+        public hudson.util.ListBoxModel doFillConnectionIdItems() {
+            return SqlGlobalConfiguration.get().doFillDatabaseConnectionIdItems();
+        }
+    }
+}
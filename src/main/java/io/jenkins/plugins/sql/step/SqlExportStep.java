@@ -0,0 +1,344 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.metrics.SqlMetrics;
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+import io.jenkins.plugins.sql.service.CsvRecordWriter;
+import io.jenkins.plugins.sql.service.DatabaseService;
+import io.jenkins.plugins.sql.service.JsonLinesRecordWriter;
+import io.jenkins.plugins.sql.service.RecordWriter;
+import io.jenkins.plugins.sql.service.ResultExporter;
+import io.jenkins.plugins.sql.service.SqlExecutor;
+import io.jenkins.plugins.sql.service.SqlScriptTokenizer;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pipeline step for exporting the result of a query to a CSV or JSON Lines file in the workspace
+ */
+public class SqlExportStep extends Step {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String connectionId;
+    private final String sql;
+    private final String file;
+    private String format;
+    private String compression;
+    private String delimiter = ",";
+    private boolean header = true;
+    private Object params;
+    private int fetchSize = 0;
+    private int timeoutSeconds = 0;
+
+    @DataBoundConstructor
+    public SqlExportStep(String connectionId, String sql, String file) {
+        this.connectionId = connectionId;
+        this.sql = sql;
+        this.file = file;
+    }
+
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    @DataBoundSetter
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    @DataBoundSetter
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    @DataBoundSetter
+    public void setDelimiter(String delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public boolean isHeader() {
+        return header;
+    }
+
+    @DataBoundSetter
+    public void setHeader(boolean header) {
+        this.header = header;
+    }
+
+    /**
+     * @return a list of positional values for {@code ?} placeholders, or a map of values for {@code :name} placeholders
+     */
+    public Object getParams() {
+        return params;
+    }
+
+    @DataBoundSetter
+    public void setParams(Object params) {
+        this.params = params;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    @DataBoundSetter
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutSeconds(int timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new SqlExportExecution(context, this);
+    }
+
+    /**
+     * Runs the export on the bounded {@link SqlExecutor} pool once the connection admits it, without holding a
+     * thread while it waits. Aborting the build cancels the query on the database.
+     */
+    public static class SqlExportExecution extends SlotStepExecution {
+        private static final long serialVersionUID = 1L;
+
+        private final transient SqlExportStep step;
+        private transient volatile ResultExporter exporter;
+        private transient FilePath target;
+        private transient String query;
+        private transient String format;
+        private transient boolean gzip;
+        private transient PrintStream logger;
+
+        SqlExportExecution(StepContext context, SqlExportStep step) {
+            super(context, "sqlExport", "SQL export failed");
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            TaskListener listener = getContext().get(TaskListener.class);
+            FilePath workspace = getContext().get(FilePath.class);
+            logger = listener.getLogger();
+
+            if (step.sql == null || step.file == null) {
+                throw new IllegalArgumentException("'sql' and 'file' parameters must be provided");
+            }
+            if (step.fetchSize < 0 || step.timeoutSeconds < 0) {
+                throw new IllegalArgumentException("'fetchSize' and 'timeoutSeconds' cannot be negative");
+            }
+            if (step.delimiter == null || step.delimiter.length() != 1) {
+                throw new IllegalArgumentException("'delimiter' must be a single character");
+            }
+            query = singleQuery();
+            gzip = resolveGzip();
+            format = resolveFormat();
+
+            target = workspace.child(step.file);
+            logger.println("Exporting to " + format.toUpperCase(Locale.ROOT) + (gzip ? " (gzip)" : "") + " file "
+                    + step.file);
+            logger.println("Using database connection: " + step.connectionId);
+
+            exporter = new ResultExporter(step.fetchSize, step.timeoutSeconds,
+                    SqlMetrics.forConnection(step.connectionId), logger);
+            return startWhenAdmitted(step.connectionId, logger);
+        }
+
+        @Override
+        Object run() throws Exception {
+            setStatus("exporting from " + step.connectionId);
+            return export();
+        }
+
+        @Override
+        boolean cancel(Throwable cause) {
+            ResultExporter running = exporter;
+            if (running != null) {
+                running.cancel();
+            }
+            return false;
+        }
+
+        private Map<String, Object> export() throws Exception {
+            DatabaseDriver driver = DatabaseService.getDatabaseDriver(step.connectionId);
+            long start = System.nanoTime();
+            FilePath parent = target.getParent();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            // rows are written as they are fetched, and sent to the agent of the workspace in compressed chunks
+            CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(target.write(), BUFFER_SIZE));
+            long rows;
+            try (RecordWriter records = openWriter(gzip ? new GZIPOutputStream(counter, BUFFER_SIZE) : counter, format);
+                 Connection connection = DatabaseService.getConnection(step.connectionId)) {
+                rows = exporter.export(connection, driver, query, step.params, records);
+            } catch (SQLException | IOException | RuntimeException e) {
+                counter.close();
+                // a partial export must not be mistaken for a complete one
+                target.delete();
+                throw e;
+            }
+
+            long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            logger.println("Exported " + rows + " row(s) to " + step.file + " (" + counter.count + " bytes) in "
+                    + millis + " ms (" + (rows * 1000 / millis) + " rows/s)");
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("rows", rows);
+            result.put("bytes", counter.count);
+            return result;
+        }
+
+        private String singleQuery() throws IOException {
+            try (SqlScriptTokenizer statements = new SqlScriptTokenizer(new StringReader(step.sql),
+                    DatabaseService.getDatabaseDriver(step.connectionId))) {
+                String query = statements.next();
+                if (query == null || statements.next() != null || !SqlScriptTokenizer.isQuery(query)) {
+                    throw new IllegalArgumentException("'sql' must be a single SELECT statement");
+                }
+                return query;
+            }
+        }
+
+        private boolean resolveGzip() {
+            String compression = step.compression;
+            if (compression == null || compression.trim().isEmpty()) {
+                return step.file.toLowerCase(Locale.ROOT).endsWith(".gz");
+            }
+            compression = compression.trim().toLowerCase(Locale.ROOT);
+            if (!compression.equals("gzip") && !compression.equals("none")) {
+                throw new IllegalArgumentException("Unsupported compression '" + step.compression
+                        + "', expected 'gzip' or 'none'");
+            }
+            return compression.equals("gzip");
+        }
+
+        private String resolveFormat() {
+            String format = step.format;
+            if (format == null || format.trim().isEmpty()) {
+                String name = step.file.toLowerCase(Locale.ROOT);
+                if (name.endsWith(".gz")) {
+                    name = name.substring(0, name.length() - 3);
+                }
+                format = name.endsWith(".jsonl") || name.endsWith(".ndjson") ? "jsonl" : "csv";
+            }
+            format = format.trim().toLowerCase(Locale.ROOT);
+            if (!format.equals("csv") && !format.equals("jsonl")) {
+                throw new IllegalArgumentException("Unsupported format '" + step.format + "', expected 'csv' or 'jsonl'");
+            }
+            return format;
+        }
+
+        private RecordWriter openWriter(OutputStream out, String format) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            if (format.equals("jsonl")) {
+                return new JsonLinesRecordWriter(writer);
+            }
+            return new CsvRecordWriter(writer, step.delimiter.charAt(0), step.header);
+        }
+    }
+
+    /**
+     * Counts the bytes that reach the file, after compression
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<Class<?>> getRequiredContext() {
+            Set<Class<?>> context = new HashSet<>();
+            context.add(TaskListener.class);
+            context.add(FilePath.class);
+            context.add(Run.class);
+            return context;
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "sqlExport";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Export a query result to a CSV or JSON Lines file";
+        }
+
+        public hudson.util.ListBoxModel doFillConnectionIdItems() {
+            return SqlGlobalConfiguration.get().doFillDatabaseConnectionIdItems();
+        }
+    }
+}
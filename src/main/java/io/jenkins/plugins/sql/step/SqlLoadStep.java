@@ -0,0 +1,258 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.service.BulkLoader;
+import io.jenkins.plugins.sql.service.CsvRecordReader;
+import io.jenkins.plugins.sql.service.DatabaseService;
+import io.jenkins.plugins.sql.service.JsonLinesRecordReader;
+import io.jenkins.plugins.sql.service.RecordReader;
+import io.jenkins.plugins.sql.service.SqlExecutor;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Pipeline step for loading a CSV or JSON Lines file from the workspace into a table
+ */
+public class SqlLoadStep extends Step {
+
+    private final String connectionId;
+    private final String file;
+    private final String table;
+    private String format;
+    private List<String> columns;
+    private String delimiter = ",";
+    private boolean header = true;
+    private int batchSize = 1000;
+    private int commitEvery = 10000;
+    private boolean nativeBulk = true;
+
+    @DataBoundConstructor
+    public SqlLoadStep(String connectionId, String file, String table) {
+        this.connectionId = connectionId;
+        this.file = file;
+        this.table = table;
+    }
+
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    @DataBoundSetter
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    @DataBoundSetter
+    public void setColumns(List<String> columns) {
+        this.columns = columns;
+    }
+
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    @DataBoundSetter
+    public void setDelimiter(String delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public boolean isHeader() {
+        return header;
+    }
+
+    @DataBoundSetter
+    public void setHeader(boolean header) {
+        this.header = header;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @DataBoundSetter
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getCommitEvery() {
+        return commitEvery;
+    }
+
+    @DataBoundSetter
+    public void setCommitEvery(int commitEvery) {
+        this.commitEvery = commitEvery;
+    }
+
+    public boolean isNativeBulk() {
+        return nativeBulk;
+    }
+
+    @DataBoundSetter
+    public void setNativeBulk(boolean nativeBulk) {
+        this.nativeBulk = nativeBulk;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new SqlLoadExecution(context, this);
+    }
+
+    /**
+     * Runs the load on the bounded {@link SqlExecutor} pool once the connection admits it, without holding a
+     * thread while it waits. Aborting the build cancels the running INSERT batch or bulk copy on the database.
+     */
+    public static class SqlLoadExecution extends SlotStepExecution {
+        private static final long serialVersionUID = 1L;
+
+        private final transient SqlLoadStep step;
+        private transient volatile BulkLoader loader;
+        private transient FilePath dataFile;
+        private transient String format;
+        private transient PrintStream logger;
+
+        SqlLoadExecution(StepContext context, SqlLoadStep step) {
+            super(context, "sqlLoad", "SQL load failed");
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            TaskListener listener = getContext().get(TaskListener.class);
+            FilePath workspace = getContext().get(FilePath.class);
+            logger = listener.getLogger();
+
+            if (step.file == null || step.table == null) {
+                throw new IllegalArgumentException("'file' and 'table' parameters must be provided");
+            }
+            if (step.batchSize < 1 || step.commitEvery < 0) {
+                throw new IllegalArgumentException("'batchSize' must be at least 1 and 'commitEvery' cannot be negative");
+            }
+            if (step.delimiter == null || step.delimiter.length() != 1) {
+                throw new IllegalArgumentException("'delimiter' must be a single character");
+            }
+
+            dataFile = workspace.child(step.file);
+            format = resolveFormat();
+            logger.println("Loading " + format.toUpperCase(Locale.ROOT) + " file " + step.file + " into " + step.table);
+            logger.println("Using database connection: " + step.connectionId);
+
+            loader = new BulkLoader(step.table, step.batchSize, step.commitEvery, step.nativeBulk, logger);
+            return startWhenAdmitted(step.connectionId, logger);
+        }
+
+        @Override
+        Object run() throws Exception {
+            setStatus("loading into " + step.table + " on " + step.connectionId);
+            return load();
+        }
+
+        @Override
+        boolean cancel(Throwable cause) {
+            BulkLoader running = loader;
+            if (running != null) {
+                running.cancel();
+            }
+            return false;
+        }
+
+        private long load() throws Exception {
+            if (!dataFile.exists()) {
+                throw new IllegalArgumentException("Data file not found: " + step.file);
+            }
+            long start = System.nanoTime();
+            // the file is streamed through remoting, never read into memory as a whole
+            try (RecordReader records = openReader(dataFile, format);
+                 Connection connection = DatabaseService.getConnection(step.connectionId)) {
+                long rows = loader.load(connection, DatabaseService.getDatabaseDriver(step.connectionId), records);
+                long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+                logger.println("Loaded " + rows + " row(s) into " + step.table + " in " + millis + " ms ("
+                        + (rows * 1000 / millis) + " rows/s)");
+                return rows;
+            }
+        }
+
+        private String resolveFormat() {
+            String format = step.format;
+            if (format == null || format.trim().isEmpty()) {
+                String name = step.file.toLowerCase(Locale.ROOT);
+                format = name.endsWith(".jsonl") || name.endsWith(".ndjson") ? "jsonl" : "csv";
+            }
+            format = format.trim().toLowerCase(Locale.ROOT);
+            if (!format.equals("csv") && !format.equals("jsonl")) {
+                throw new IllegalArgumentException("Unsupported format '" + step.format + "', expected 'csv' or 'jsonl'");
+            }
+            return format;
+        }
+
+        private RecordReader openReader(FilePath dataFile, String format) throws Exception {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(dataFile.read(), StandardCharsets.UTF_8));
+            if (format.equals("jsonl")) {
+                return new JsonLinesRecordReader(reader, step.columns);
+            }
+            return new CsvRecordReader(reader, step.delimiter.charAt(0), step.header, step.columns);
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<Class<?>> getRequiredContext() {
+            Set<Class<?>> context = new HashSet<>();
+            context.add(TaskListener.class);
+            context.add(FilePath.class);
+            context.add(Run.class);
+            return context;
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "sqlLoad";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Load CSV or JSON Lines data into a table";
+        }
+
+        public hudson.util.ListBoxModel doFillConnectionIdItems() {
+            return SqlGlobalConfiguration.get().doFillDatabaseConnectionIdItems();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.jenkins.plugins.sql.step;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Context object handed to the body of {@code sqlEachRow}, holding the row or chunk currently being processed
+ */
+public class SqlRowContext implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Map<String, Object>> rows;
+    private final boolean chunked;
+    private final long offset;
+    private final Set<String> connectionIds;
+
+    /**
+     * @param connectionIds connections whose cursors are held open by this and the enclosing {@code sqlEachRow} steps
+     */
+    SqlRowContext(List<Map<String, Object>> rows, boolean chunked, long offset, Set<String> connectionIds) {
+        this.rows = rows;
+        this.chunked = chunked;
+        this.offset = offset;
+        this.connectionIds = connectionIds;
+    }
+
+    /**
+     * @return the current row in per-row mode, or the current chunk of rows in chunk mode
+     */
+    public Object getValue() {
+        if (chunked) {
+            return rows;
+        }
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    public List<Map<String, Object>> getRows() {
+        return rows;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * @return zero-based index of the first row of this context within the whole result
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return whether an enclosing {@code sqlEachRow} holds the connection until its loop ends
+     */
+    boolean holdsConnection(String connectionId) {
+        return connectionIds != null && connectionIds.contains(connectionId);
+    }
+
+    Set<String> getConnectionIds() {
+        return connectionIds;
+    }
+}
@@ -0,0 +1,61 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.Extension;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Pipeline step returning the row (or chunk of rows) currently being processed by an enclosing {@code sqlEachRow}
+ */
+public class SqlRowStep extends Step {
+
+    @DataBoundConstructor
+    public SqlRowStep() {
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new SqlRowExecution(context);
+    }
+
+    public static class SqlRowExecution extends SynchronousStepExecution<Object> {
+        private static final long serialVersionUID = 1L;
+
+        SqlRowExecution(StepContext context) {
+            super(context);
+        }
+
+        @Override
+        protected Object run() throws Exception {
+            return getContext().get(SqlRowContext.class).getValue();
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<Class<?>> getRequiredContext() {
+            return Collections.singleton(SqlRowContext.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "sqlRow";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Current row of sqlEachRow";
+        }
+    }
+}
@@ -0,0 +1,747 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.FilePath;
+import hudson.model.Run;
+import io.jenkins.plugins.sql.metrics.ConnectionMetrics;
+import io.jenkins.plugins.sql.metrics.SqlMetrics;
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+import io.jenkins.plugins.sql.model.ResultRows;
+import io.jenkins.plugins.sql.model.SlowStatement;
+import io.jenkins.plugins.sql.model.SpilledResult;
+import io.jenkins.plugins.sql.model.SqlResult;
+import io.jenkins.plugins.sql.service.DatabaseService;
+import io.jenkins.plugins.sql.service.SqlExecutor;
+import io.jenkins.plugins.sql.service.SqlParameters;
+import io.jenkins.plugins.sql.service.SqlScriptTokenizer;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the statements of a {@link SqlStep} script on one connection. Holds only the step's options, so that
+ * it can be sent to the agent that owns the workspace and run there.
+ */
+class SqlScriptRunner implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getLogger(SqlScriptRunner.class.getName());
+    private static final long LOG_BUDGET = SystemProperties.getLong(SqlScriptRunner.class.getName() + ".logBudget",
+            1024L * 1024);
+
+    private final String connectionId;
+    private final int maxRows;
+    private final int fetchSize;
+    private final int timeoutSeconds;
+    private final boolean batch;
+    private final int batchSize;
+    private final boolean returnResult;
+    @CheckForNull
+    private final Object params;
+    private final String logMode;
+    private final long logBudget;
+    private final boolean transaction;
+    private final int commitEvery;
+    /**
+     * One of the {@code Connection.TRANSACTION_*} levels, or -1 to keep the connection's default
+     */
+    private final int isolationLevel;
+    @CheckForNull
+    private final String lobDir;
+    @CheckForNull
+    private FilePath lobDirectory;
+    private int lobStep;
+    private final AtomicInteger lobResults = new AtomicInteger();
+    /**
+     * Statements taking at least this long have their plan captured, 0 to not look for slow statements
+     */
+    private final int slowQueryMillis;
+    private final List<SlowStatement> slowStatements = new ArrayList<>();
+    /**
+     * Directory that results are spilled to instead of being returned in memory, only set on the controller
+     */
+    @CheckForNull
+    private transient File spillDirectory;
+    @CheckForNull
+    private transient SpilledResult.Writer spill;
+    private transient ConnectionMetrics metrics;
+    private transient volatile Statement running;
+    /**
+     * Statements of the workers of {@link #runParallel}, which only runs on the controller
+     */
+    private final transient Set<Statement> parallelRunning = ConcurrentHashMap.newKeySet();
+    private transient volatile boolean cancelled;
+
+    SqlScriptRunner(SqlStep step) {
+        this.connectionId = step.getConnectionId();
+        this.maxRows = step.getMaxRows();
+        this.fetchSize = step.getFetchSize();
+        this.timeoutSeconds = step.getTimeoutSeconds();
+        this.batch = step.isBatch();
+        this.batchSize = step.getBatchSize();
+        this.returnResult = step.isReturnResult();
+        this.params = step.getParams();
+        this.logMode = step.getLogMode();
+        // validated here, read on the controller so that agents use the same budget
+        QueryLog.rowLimit(logMode);
+        this.logBudget = LOG_BUDGET;
+        this.transaction = step.isTransaction();
+        this.commitEvery = step.getCommitEvery();
+        this.isolationLevel = isolationLevel(step.getIsolation());
+        this.lobDir = step.getLobDir();
+        this.slowQueryMillis = step.getSlowQueryMillis();
+    }
+
+    /**
+     * Sets the workspace that large object values are written to if the step has a {@code lobDir}.
+     *
+     * @param run the build of the step, which numbers its steps that write large objects
+     */
+    void setWorkspace(FilePath workspace, Run<?, ?> run) {
+        if (lobDir != null) {
+            lobDirectory = workspace.child(lobDir);
+            lobStep = LobStepCounter.next(run);
+        }
+    }
+
+    /**
+     * Makes {@link #run} write the rows of every result to a file in the given directory, and return a
+     * {@link SpilledResult} for them.
+     */
+    void setSpillDirectory(File directory) {
+        spillDirectory = directory;
+    }
+
+    /**
+     * @return the statements that took at least {@code slowQueryMillis}, in the order they finished
+     */
+    List<SlowStatement> getSlowStatements() {
+        synchronized (slowStatements) {
+            return new ArrayList<>(slowStatements);
+        }
+    }
+
+    /**
+     * @param isolation {@code READ_UNCOMMITTED}, {@code READ_COMMITTED}, {@code REPEATABLE_READ} or
+     *                  {@code SERIALIZABLE}, in any case; empty or {@code null} for the connection's default
+     * @return the {@code Connection.TRANSACTION_*} level, or -1 for the connection's default
+     * @throws IllegalArgumentException if the isolation level is not known
+     */
+    static int isolationLevel(@CheckForNull String isolation) {
+        if (isolation == null || isolation.trim().isEmpty()) {
+            return -1;
+        }
+        switch (isolation.trim().toUpperCase(Locale.ROOT).replace(' ', '_')) {
+            case "READ_UNCOMMITTED":
+                return Connection.TRANSACTION_READ_UNCOMMITTED;
+            case "READ_COMMITTED":
+                return Connection.TRANSACTION_READ_COMMITTED;
+            case "REPEATABLE_READ":
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            case "SERIALIZABLE":
+                return Connection.TRANSACTION_SERIALIZABLE;
+            default:
+                throw new IllegalArgumentException("'isolation' must be one of READ_UNCOMMITTED, READ_COMMITTED, "
+                        + "REPEATABLE_READ or SERIALIZABLE, not '" + isolation + "'");
+        }
+    }
+
+    /**
+     * Runs every statement of the script, which is closed afterwards.
+     *
+     * @return the query results if the step returns them, {@code null} otherwise
+     */
+    @CheckForNull
+    Object run(Connection connection, @CheckForNull DatabaseDriver driver, Reader script, PrintStream logger)
+            throws SQLException, IOException {
+        metrics = SqlMetrics.forConnection(connectionId);
+        QueryLog log = new QueryLog(logger, logMode, logBudget);
+        try (SqlScriptTokenizer statements = new SqlScriptTokenizer(script, driver);
+             SpilledResult.Writer spilled = spillDirectory != null ? new SpilledResult.Writer(spillDirectory) : null) {
+            spill = spilled;
+            Object result = executeSql(connection, driver, statements, log);
+            if (spilled != null) {
+                SpilledResult rows = spilled.finish();
+                log.summary("Spilled " + rows.size() + " row(s) to disk");
+                return rows;
+            }
+            return result;
+        } catch (SQLException e) {
+            if (!cancelled) {
+                metrics.recordFailure(e);
+            }
+            throw e;
+        } finally {
+            log.flush();
+        }
+    }
+
+    /**
+     * Runs the statements of the script on up to {@code workers} pooled connections at once. Each worker takes the
+     * next statement of the script as soon as it is done with its last one, so that a few slow statements do not
+     * hold up the rest. One worker runs in the calling thread, the others on the {@link SqlExecutor}.
+     * <p>
+     * A failed statement does not stop the others. Results are returned, and failures reported, in script order.
+     *
+     * @return the query results if the step returns them, {@code null} otherwise
+     */
+    @CheckForNull
+    Object runParallel(@CheckForNull DatabaseDriver driver, Reader script, int workers, PrintStream logger)
+            throws SQLException, IOException, InterruptedException {
+        metrics = SqlMetrics.forConnection(connectionId);
+        QueryLog log = new QueryLog(logger, logMode, logBudget);
+        ParallelState state = new ParallelState();
+        List<Future<?>> helpers = new ArrayList<>();
+        try (SqlScriptTokenizer statements = new SqlScriptTokenizer(script, driver)) {
+            log.summary("Running statements on up to " + workers + " connection(s)");
+            for (int i = 1; i < workers; i++) {
+                helpers.add(SqlExecutor.submit(() -> {
+                    try {
+                        work(statements, driver, state, log);
+                    } catch (SQLException | IOException e) {
+                        throw new WorkerException(e);
+                    }
+                }, logger));
+            }
+            try {
+                work(statements, driver, state, log);
+            } finally {
+                awaitHelpers(helpers);
+            }
+            checkCancelled();
+            for (Future<?> helper : helpers) {
+                rethrow(helper);
+            }
+        } finally {
+            log.flush();
+        }
+
+        int executed = state.next;
+        SortedMap<Integer, SQLException> failures = state.failures;
+        log.summary("Successfully executed " + (executed - failures.size()) + " of " + executed + " statement(s)");
+        log.flush();
+        if (!failures.isEmpty()) {
+            int first = failures.firstKey();
+            SQLException failure = new SQLException(failures.size() + " of " + executed
+                    + " statement(s) failed, the first was statement " + (first + 1) + ": "
+                    + failures.get(first).getMessage(), failures.get(first));
+            for (SQLException e : failures.tailMap(first + 1).values()) {
+                failure.addSuppressed(e);
+            }
+            throw failure;
+        }
+        List<SqlResult> allResults = new ArrayList<>();
+        for (List<SqlResult> results : state.results.values()) {
+            allResults.addAll(results);
+        }
+        return returnResult ? combineResults(allResults) : null;
+    }
+
+    /**
+     * Takes statements from the script and runs them on a connection of its own until none are left.
+     */
+    private void work(SqlScriptTokenizer statements, @CheckForNull DatabaseDriver driver, ParallelState state,
+                      QueryLog log) throws SQLException, IOException {
+        if (cancelled) {
+            return;
+        }
+        try (Connection connection = DatabaseService.getConnection(connectionId);
+             Statement statement = DatabaseService.createStatement(connection, driver,
+                     fetchSize, driverMaxRows(), timeoutSeconds)) {
+            parallelRunning.add(statement);
+            if (cancelled) {
+                cancel(statement);
+            }
+            int previousIsolation = applyIsolation(connection);
+            try {
+                while (!cancelled) {
+                    String sql;
+                    int index;
+                    synchronized (statements) {
+                        sql = statements.next();
+                        if (sql == null) {
+                            return;
+                        }
+                        index = state.next++;
+                    }
+                    QueryLog statementLog = log.statementLog();
+                    statementLog.statement(sql);
+                    List<SqlResult> results = new ArrayList<>();
+                    try {
+                        executeStatement(connection, driver, statement, sql, index + 1, null, results, statementLog);
+                        state.results.put(index, results);
+                    } catch (SQLException e) {
+                        if (cancelled) {
+                            throw e;
+                        }
+                        metrics.recordFailure(e);
+                        state.failures.put(index, e);
+                        statementLog.summary("Statement " + (index + 1) + " failed: " + e.getMessage());
+                    } finally {
+                        statementLog.flush();
+                    }
+                }
+            } finally {
+                parallelRunning.remove(statement);
+                restore(connection, false, previousIsolation);
+            }
+        }
+    }
+
+    /**
+     * Waits for the helpers that started. Helpers that are still queued for a thread are dropped instead, since
+     * the statements are all taken by now, and waiting for them could exhaust the threads of the executor.
+     */
+    private static void awaitHelpers(List<Future<?>> helpers) throws InterruptedException {
+        for (Future<?> helper : helpers) {
+            if (helper.cancel(false)) {
+                continue;
+            }
+            try {
+                helper.get();
+            } catch (ExecutionException e) {
+                // reported by rethrow
+            }
+        }
+    }
+
+    private static void rethrow(Future<?> helper) throws SQLException, IOException, InterruptedException {
+        try {
+            helper.get();
+        } catch (CancellationException e) {
+            // never started
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof WorkerException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    /**
+     * Cancels the statement that is running, if any, and stops the script before its next statement.
+     * May be called from any thread.
+     */
+    void cancel() {
+        cancelled = true;
+        cancelRunning();
+    }
+
+    private void cancelRunning() {
+        cancel(running);
+        if (parallelRunning != null) {
+            for (Statement statement : parallelRunning) {
+                cancel(statement);
+            }
+        }
+    }
+
+    private static void cancel(@CheckForNull Statement statement) {
+        if (statement != null) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Failed to cancel statement", e);
+            }
+        }
+    }
+
+    /**
+     * Makes the statement the one {@link #cancel()} acts on, cancelling it right away if the script was
+     * cancelled while it was being created.
+     */
+    private void setRunning(@CheckForNull Statement statement) {
+        running = statement;
+        if (statement != null && cancelled) {
+            cancelRunning();
+        }
+    }
+
+    /**
+     * @return the row limit for the driver: one more than {@code maxRows}, so that a result cut off at the limit can
+     * be told from one that has exactly {@code maxRows} rows
+     */
+    private int driverMaxRows() {
+        return maxRows > 0 && maxRows < Integer.MAX_VALUE ? maxRows + 1 : maxRows;
+    }
+
+    private void checkCancelled() throws SQLException {
+        if (cancelled) {
+            throw new SQLException("SQL execution was cancelled");
+        }
+    }
+
+    /**
+     * Runs the script in auto-commit mode, as one transaction, or committing every {@link #commitEvery} statements.
+     * A failed transaction is rolled back. The connection's settings are restored before it goes back to its pool.
+     */
+    private Object executeSql(Connection connection, DatabaseDriver driver, SqlScriptTokenizer statements,
+                              QueryLog log) throws SQLException, IOException {
+        boolean manualCommit = transaction || commitEvery > 0;
+        int previousIsolation = applyIsolation(connection);
+        try {
+            if (manualCommit) {
+                connection.setAutoCommit(false);
+            }
+            Object result = executeStatements(connection, driver, statements, log);
+            if (manualCommit) {
+                connection.commit();
+                log.summary(transaction ? "Committed transaction" : "Committed remaining statements");
+            }
+            return result;
+        } catch (SQLException | IOException | RuntimeException e) {
+            if (manualCommit) {
+                try {
+                    connection.rollback();
+                    log.summary(transaction ? "Rolled back transaction"
+                            : "Rolled back the statements since the last commit");
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+            }
+            throw e;
+        } finally {
+            restore(connection, manualCommit, previousIsolation);
+        }
+    }
+
+    /**
+     * @return the isolation level to restore, or -1 if it was not changed
+     */
+    private int applyIsolation(Connection connection) throws SQLException {
+        if (isolationLevel < 0) {
+            return -1;
+        }
+        int previous = connection.getTransactionIsolation();
+        connection.setTransactionIsolation(isolationLevel);
+        return previous;
+    }
+
+    private static void restore(Connection connection, boolean autoCommit, int isolation) {
+        try {
+            if (autoCommit) {
+                connection.setAutoCommit(true);
+            }
+            if (isolation >= 0) {
+                connection.setTransactionIsolation(isolation);
+            }
+        } catch (SQLException e) {
+            // the pool validates the connection before lending it out again
+            LOGGER.log(Level.FINE, "Failed to restore connection settings", e);
+        }
+    }
+
+    private Object executeStatements(Connection connection, DatabaseDriver driver, SqlScriptTokenizer statements,
+                                     QueryLog log) throws SQLException, IOException {
+        List<SqlResult> allResults = new ArrayList<>();
+        int executedStatements = 0;
+
+        if (params != null) {
+            executePrepared(connection, driver, statements, allResults, log);
+            log.summary("Successfully executed 1 statement(s)");
+            return returnResult ? combineResults(allResults) : null;
+        }
+
+        try (Statement statement = DatabaseService.createStatement(connection, driver,
+                fetchSize, driverMaxRows(), timeoutSeconds)) {
+            setRunning(statement);
+            BatchState state = new BatchState();
+            String sql;
+            while ((sql = statements.next()) != null) {
+                checkCancelled();
+                executedStatements++;
+                
+                if (batch && !SqlScriptTokenizer.isQuery(sql)) {
+                    statement.addBatch(sql);
+                    if (++state.pending >= batchSize) {
+                        executeBatch(statement, state, log);
+                    }
+                } else {
+                    // queries see the effects of every statement before them
+                    executeBatch(statement, state, log);
+                    log.statement(sql);
+                    executeStatement(connection, driver, statement, sql, executedStatements, null, allResults, log);
+                }
+                
+                if (commitEvery > 0 && executedStatements % commitEvery == 0) {
+                    executeBatch(statement, state, log);
+                    connection.commit();
+                    log.detail("Committed after " + executedStatements + " statement(s)");
+                }
+            }
+            executeBatch(statement, state, log);
+        } finally {
+            setRunning(null);
+        }
+
+        log.summary("Successfully executed " + executedStatements + " statement(s)");
+
+        return returnResult ? combineResults(allResults) : null;
+    }
+
+    private void executePrepared(Connection connection, DatabaseDriver driver, SqlScriptTokenizer statements,
+                                 List<SqlResult> allResults, QueryLog log) throws SQLException, IOException {
+        String sql = statements.next();
+        if (sql == null) {
+            throw new IllegalArgumentException("No SQL statement to execute");
+        }
+        if (statements.next() != null) {
+            throw new IllegalArgumentException("'params' can only be used with a single SQL statement");
+        }
+
+        SqlParameters parameters = SqlParameters.parse(sql, params, driver);
+        log.statement(sql);
+        try (PreparedStatement statement = DatabaseService.prepareStatement(connection, parameters.getSql(), driver,
+                fetchSize, driverMaxRows(), timeoutSeconds)) {
+            setRunning(statement);
+            parameters.bind(statement, params);
+            executeStatement(connection, driver, statement, sql, 1, parameters, allResults, log);
+        } finally {
+            setRunning(null);
+        }
+    }
+
+    /**
+     * @param index      position of the statement in the script, starting at 1
+     * @param parameters the placeholders of {@code sql} if {@code statement} is prepared from it, or {@code null}
+     */
+    private void executeStatement(Connection connection, DatabaseDriver driver, Statement statement, String sql,
+                                  int index, @CheckForNull SqlParameters parameters, List<SqlResult> allResults,
+                                  QueryLog log) throws SQLException {
+        long statementStart = System.nanoTime();
+        // PostgreSQL only streams inside a transaction; commit right after to keep auto-commit semantics
+        boolean cursorTransaction = driver != null && driver.isCursorFetchTransactional()
+                && SqlScriptTokenizer.isQuery(sql) && connection.getAutoCommit();
+        if (cursorTransaction) {
+            connection.setAutoCommit(false);
+        }
+        try {
+            long start = System.nanoTime();
+            boolean hasResultSet = statement instanceof PreparedStatement
+                    ? ((PreparedStatement) statement).execute()
+                    : statement.execute(sql);
+            metrics.getExecution().recordSince(start);
+            
+            if (hasResultSet && returnResult) {
+                long fetchStart = System.nanoTime();
+                try (ResultSet resultSet = statement.getResultSet()) {
+                    int rows = processResultSet(resultSet, allResults, log);
+                    metrics.getFetch().recordSince(fetchStart);
+                    metrics.addRows(rows);
+                }
+            } else {
+                int updateCount = statement.getUpdateCount();
+                if (updateCount >= 0) {
+                    log.detail("Rows affected: " + updateCount);
+                }
+            }
+            if (cursorTransaction) {
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            if (cursorTransaction) {
+                connection.rollback();
+            }
+            throw e;
+        } finally {
+            if (cursorTransaction) {
+                connection.setAutoCommit(true);
+            }
+        }
+        long millis = (System.nanoTime() - statementStart) / 1_000_000;
+        if (slowQueryMillis > 0 && millis >= slowQueryMillis && !cancelled) {
+            recordSlow(connection, driver, sql, index, parameters, millis, log);
+        }
+    }
+
+    private void recordSlow(Connection connection, @CheckForNull DatabaseDriver driver, String sql, int index,
+                            @CheckForNull SqlParameters parameters, long millis, QueryLog log) {
+        // explained after the fact, so that only statements that were slow pay for it
+        String plan = ExplainPlan.capture(connection, driver, sql, parameters, params);
+        log.summary("Statement " + index + " took " + millis + " ms"
+                + (plan != null ? ", captured its execution plan" : ""));
+        synchronized (slowStatements) {
+            slowStatements.add(new SlowStatement(connectionId, index, sql, millis, plan));
+        }
+    }
+
+    /**
+     * Sends the statements queued with {@link Statement#addBatch(String)} in one round trip, if there are any.
+     */
+    private void executeBatch(Statement statement, BatchState batch, QueryLog log) throws SQLException {
+        if (batch.pending == 0) {
+            return;
+        }
+        int size = batch.pending;
+        batch.pending = 0;
+        batch.number++;
+        int[] updateCounts;
+        long start = System.nanoTime();
+        try {
+            updateCounts = statement.executeBatch();
+            metrics.getExecution().recordSince(start);
+        } catch (BatchUpdateException e) {
+            int[] completed = e.getUpdateCounts();
+            log.summary("Batch " + batch.number + " failed after " + (completed != null ? completed.length : 0)
+                    + " of " + size + " statement(s)");
+            throw e;
+        }
+
+        long rowsAffected = 0;
+        boolean unknown = false;
+        for (int count : updateCounts) {
+            if (count >= 0) {
+                rowsAffected += count;
+            } else {
+                // Statement.SUCCESS_NO_INFO, typically when the driver rewrote the batch
+                unknown = true;
+            }
+        }
+        log.detail("Batch " + batch.number + ": executed " + size + " statement(s), rows affected: "
+                + rowsAffected + (unknown ? " (some counts not reported by the driver)" : ""));
+    }
+
+    /**
+     * Reads the rows of the result set into a result added to {@code allResults}, or into the spill file.
+     *
+     * @return the number of rows read
+     */
+    private int processResultSet(ResultSet resultSet, List<SqlResult> allResults, QueryLog log) throws SQLException {
+        // large objects go straight from the driver's stream to the workspace
+        LobFiles lobs = lobDirectory != null
+                ? new LobFiles(lobDirectory, lobDir, lobStep, lobResults.incrementAndGet())
+                : null;
+        SqlResult results = new SqlResult(resultSet.getMetaData(), lobs);
+        int columnCount = results.getColumnCount();
+
+        // Print header
+        int rowLimit = log.getRowLimit();
+        if (rowLimit > 0) {
+            log.row(String.join("\t", results.getColumnNames()));
+        }
+
+        // maxRows is enforced by the driver through Statement.setMaxRows
+        int rowCount = 0;
+        boolean truncated = false;
+        StringBuilder rowOutput = new StringBuilder();
+        while (resultSet.next()) {
+            if (maxRows > 0 && rowCount == maxRows) {
+                // the one row past the limit, see driverMaxRows()
+                truncated = true;
+                break;
+            }
+            int row = results.appendRow(resultSet);
+            rowCount++;
+            // rows past the sample or the log budget are not even formatted
+            if (rowCount <= rowLimit && log.acceptsRows()) {
+                rowOutput.setLength(0);
+                
+                for (int i = 0; i < columnCount; i++) {
+                    Object value = results.getValue(row, i);
+                    if (i > 0) rowOutput.append("\t");
+                    rowOutput.append(value != null ? value.toString() : "NULL");
+                }
+                
+                log.row(rowOutput);
+            }
+            if (spill != null && results.size() == SpilledResult.BLOCK_ROWS) {
+                spill(results);
+                results = results.continuation();
+            }
+        }
+
+        if (rowLimit > 0 && rowLimit < Integer.MAX_VALUE && rowCount > rowLimit) {
+            log.row("... (" + (rowCount - rowLimit) + " more row(s) not shown)");
+        }
+
+        if (truncated) {
+            log.detail("... (row limit of " + maxRows + " reached, further rows were not fetched)");
+        }
+
+        results.trimToSize();
+        if (spill != null) {
+            spill(results);
+        } else {
+            allResults.add(results);
+        }
+        log.detail("Retrieved " + rowCount + " row(s)");
+        if (lobs != null && lobs.getWritten() > 0) {
+            log.detail("Wrote " + lobs.getWritten() + " large object value(s) to " + lobDir);
+        }
+        return rowCount;
+    }
+
+    private void spill(SqlResult block) throws SQLException {
+        try {
+            spill.append(block);
+        } catch (IOException e) {
+            throw new SQLException("Failed to spill result to disk", e);
+        }
+    }
+
+    private static class BatchState {
+        private int number;
+        private int pending;
+    }
+
+    private static class ParallelState {
+        /**
+         * Index of the next statement of the script, guarded by the script's tokenizer
+         */
+        private int next;
+        private final SortedMap<Integer, List<SqlResult>> results = new ConcurrentSkipListMap<>();
+        private final SortedMap<Integer, SQLException> failures = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Carries the checked exception of a worker out of its {@link Runnable}
+     */
+    private static class WorkerException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        WorkerException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * A single result set is returned as its rows; rows of several result sets are returned as one flat list.
+     */
+    private static List<Map<String, Object>> combineResults(List<SqlResult> results) {
+        if (results.size() == 1) {
+            return new ResultRows(results.get(0));
+        }
+        List<Map<String, Object>> combined = new ArrayList<>();
+        for (SqlResult result : results) {
+            combined.addAll(result);
+        }
+        return combined;
+    }
+}
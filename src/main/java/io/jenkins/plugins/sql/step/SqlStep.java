@@ -1,32 +1,47 @@
 package io.jenkins.plugins.sql.step;
 
+import hudson.AbortException;
 import hudson.Extension;
 import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
 import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.metrics.ConnectionMetrics;
+import io.jenkins.plugins.sql.metrics.SlowQueryAction;
+import io.jenkins.plugins.sql.metrics.SqlMetrics;
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+import io.jenkins.plugins.sql.model.ResultRows;
+import io.jenkins.plugins.sql.model.SqlResult;
+import io.jenkins.plugins.sql.service.ConnectionAdmission;
+import io.jenkins.plugins.sql.service.ConnectionSpec;
 import io.jenkins.plugins.sql.service.DatabaseService;
+import io.jenkins.plugins.sql.service.ResultCache;
+import io.jenkins.plugins.sql.service.SqlExecutor;
 import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
-import org.jenkinsci.plugins.workflow.steps.SynchronousStepExecution;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Pipeline step for executing SQL queries
@@ -38,6 +53,21 @@ public class SqlStep extends Step {
     private String file;
     private boolean returnResult = false;
     private int maxRows = 1000;
+    private int fetchSize = 0;
+    private int timeoutSeconds = 0;
+    private boolean batch = false;
+    private int batchSize = 1000;
+    private Object params;
+    private boolean runOnAgent = false;
+    private int cacheTtl = 0;
+    private String logMode = "full";
+    private int parallelism = 1;
+    private boolean transaction = false;
+    private int commitEvery = 0;
+    private String isolation;
+    private String lobDir;
+    private boolean spillToDisk = false;
+    private int slowQueryMillis = 0;
     
     @DataBoundConstructor
     public SqlStep(String connectionId) {
@@ -84,24 +114,203 @@ public class SqlStep extends Step {
         this.maxRows = maxRows;
     }
     
+    public int getFetchSize() {
+        return fetchSize;
+    }
+    
+    @DataBoundSetter
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+    
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+    
+    @DataBoundSetter
+    public void setTimeoutSeconds(int timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+    
+    public boolean isBatch() {
+        return batch;
+    }
+    
+    @DataBoundSetter
+    public void setBatch(boolean batch) {
+        this.batch = batch;
+    }
+    
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
+    @DataBoundSetter
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * @return a list of positional values for {@code ?} placeholders, or a map of values for {@code :name} placeholders
+     */
+    public Object getParams() {
+        return params;
+    }
+    
+    @DataBoundSetter
+    public void setParams(Object params) {
+        this.params = params;
+    }
+    
+    public boolean isRunOnAgent() {
+        return runOnAgent;
+    }
+    
+    @DataBoundSetter
+    public void setRunOnAgent(boolean runOnAgent) {
+        this.runOnAgent = runOnAgent;
+    }
+    
+    /**
+     * @return seconds for which the result of this query may be reused by identical queries, 0 to always run it
+     */
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+    
+    @DataBoundSetter
+    public void setCacheTtl(int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+    
+    /**
+     * @return what is printed to the build log: {@code full}, {@code summary}, {@code sample:N} or {@code none}
+     */
+    public String getLogMode() {
+        return logMode;
+    }
+    
+    @DataBoundSetter
+    public void setLogMode(String logMode) {
+        this.logMode = logMode;
+    }
+    
+    /**
+     * @return the number of connections the statements of the script may run on at once
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    @DataBoundSetter
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+    
+    /**
+     * @return whether the script runs as one transaction that is rolled back if a statement fails
+     */
+    public boolean isTransaction() {
+        return transaction;
+    }
+    
+    @DataBoundSetter
+    public void setTransaction(boolean transaction) {
+        this.transaction = transaction;
+    }
+    
+    /**
+     * @return the number of statements after which the script commits, 0 for auto-commit
+     */
+    public int getCommitEvery() {
+        return commitEvery;
+    }
+    
+    @DataBoundSetter
+    public void setCommitEvery(int commitEvery) {
+        this.commitEvery = commitEvery;
+    }
+    
+    /**
+     * @return the transaction isolation level, or {@code null} for the connection's default
+     */
+    public String getIsolation() {
+        return isolation;
+    }
+    
+    @DataBoundSetter
+    public void setIsolation(String isolation) {
+        this.isolation = isolation;
+    }
+    
+    /**
+     * @return the workspace directory that BLOB and CLOB values are streamed to, or {@code null} to return them
+     * in the result
+     */
+    public String getLobDir() {
+        return lobDir;
+    }
+    
+    @DataBoundSetter
+    public void setLobDir(String lobDir) {
+        this.lobDir = lobDir;
+    }
+    
+    /**
+     * @return whether the result is kept in a file of the build and read back lazily, instead of being returned in
+     * memory
+     */
+    public boolean isSpillToDisk() {
+        return spillToDisk;
+    }
+    
+    @DataBoundSetter
+    public void setSpillToDisk(boolean spillToDisk) {
+        this.spillToDisk = spillToDisk;
+    }
+    
+    /**
+     * @return the time from which a statement is reported as slow with its execution plan, 0 for never
+     */
+    public int getSlowQueryMillis() {
+        return slowQueryMillis;
+    }
+    
+    @DataBoundSetter
+    public void setSlowQueryMillis(int slowQueryMillis) {
+        this.slowQueryMillis = slowQueryMillis;
+    }
+    
     @Override
     public StepExecution start(StepContext context) throws Exception {
         return new SqlStepExecution(context, this);
     }
     
-    public static class SqlStepExecution extends SynchronousStepExecution<Object> {
-        private final SqlStep step;
+    /**
+     * Runs the script on the bounded {@link SqlExecutor} pool instead of a thread of its own. Aborting the build
+     * cancels the running statement on the database, which returns the connection to its pool.
+     */
+    public static class SqlStepExecution extends SlotStepExecution {
+        private static final long serialVersionUID = 1L;
+        private static final Logger LOGGER = Logger.getLogger(SqlStepExecution.class.getName());
+        
+        private final transient SqlStep step;
+        private transient SqlScriptRunner runner;
+        private transient FilePath workspace;
+        private transient TaskListener listener;
+        private transient ResultCache.Key cacheKey;
+        private transient volatile VirtualChannel agentChannel;
+        private transient volatile String agentExecutionId;
         
         SqlStepExecution(StepContext context, SqlStep step) {
-            super(context);
+            super(context, "sqlQuery", "SQL execution failed");
             this.step = step;
         }
         
         @Override
-        protected Object run() throws Exception {
-            TaskListener listener = getContext().get(TaskListener.class);
-            FilePath workspace = getContext().get(FilePath.class);
-            PrintStream logger = listener.getLogger();
+        public boolean start() throws Exception {
+            listener = getContext().get(TaskListener.class);
+            workspace = getContext().get(FilePath.class);
             
             // Validate input
             if (step.sql == null && step.file == null) {
@@ -112,106 +321,191 @@ public class SqlStep extends Step {
                 throw new IllegalArgumentException("Only one of 'sql' or 'file' parameter can be provided");
             }
             
-            // Get SQL content
-            String sqlContent;
+            if (step.fetchSize < 0 || step.timeoutSeconds < 0) {
+                throw new IllegalArgumentException("'fetchSize' and 'timeoutSeconds' cannot be negative");
+            }
+            
+            if (step.batch && step.batchSize < 1) {
+                throw new IllegalArgumentException("'batchSize' must be at least 1");
+            }
+            
+            if (step.parallelism < 1) {
+                throw new IllegalArgumentException("'parallelism' must be at least 1");
+            }
+            
+            if (step.commitEvery < 0) {
+                throw new IllegalArgumentException("'commitEvery' cannot be negative");
+            }
+            
+            if (step.transaction && step.commitEvery > 0) {
+                throw new IllegalArgumentException("Only one of 'transaction' or 'commitEvery' can be used");
+            }
+            
+            if (step.parallelism > 1 && (step.batch || step.params != null || step.runOnAgent
+                    || step.transaction || step.commitEvery > 0)) {
+                throw new IllegalArgumentException("'parallelism' cannot be combined with 'batch', 'params', "
+                        + "'runOnAgent', 'transaction' or 'commitEvery'");
+            }
+            
+            if (step.cacheTtl < 0) {
+                throw new IllegalArgumentException("'cacheTtl' cannot be negative");
+            }
+            
+            if (step.cacheTtl > 0 && (!step.returnResult || step.sql == null)) {
+                throw new IllegalArgumentException("'cacheTtl' requires 'returnResult' and an inline 'sql' query");
+            }
+            
+            if (step.lobDir != null) {
+                if (!step.returnResult || step.cacheTtl > 0) {
+                    throw new IllegalArgumentException("'lobDir' requires 'returnResult' and cannot be combined with 'cacheTtl'");
+                }
+                // absolute paths, drive letters and .. segments would leave the workspace
+                if (step.lobDir.isEmpty() || step.lobDir.startsWith("/") || step.lobDir.startsWith("\\")
+                        || step.lobDir.matches("(?s)(.*[/\\\\])?\\.\\.([/\\\\].*)?|[A-Za-z]:.*")) {
+                    throw new IllegalArgumentException("'lobDir' must be a directory inside the workspace: " + step.lobDir);
+                }
+            }
+            
+            if (step.spillToDisk && (!step.returnResult || step.cacheTtl > 0 || step.runOnAgent
+                    || step.parallelism > 1)) {
+                throw new IllegalArgumentException("'spillToDisk' requires 'returnResult' and cannot be combined with "
+                        + "'cacheTtl', 'runOnAgent' or 'parallelism'");
+            }
+            
+            if (step.slowQueryMillis < 0) {
+                throw new IllegalArgumentException("'slowQueryMillis' cannot be negative");
+            }
+            if (step.slowQueryMillis > 0 && step.runOnAgent) {
+                throw new IllegalArgumentException("'slowQueryMillis' cannot be combined with 'runOnAgent'");
+            }
+            
+            runner = new SqlScriptRunner(step);
+            runner.setWorkspace(workspace, getContext().get(Run.class));
+            if (step.spillToDisk) {
+                // deleted together with the build
+                runner.setSpillDirectory(new File(getContext().get(Run.class).getRootDir(), "sql-results"));
+            }
+            PrintStream logger = listener.getLogger();
+            if (step.cacheTtl > 0) {
+                ResultCache.Key key = ResultCache.key(step.connectionId, step.sql, step.params, step.maxRows,
+                        DatabaseService.getDatabaseDriver(step.connectionId));
+                SqlResult cached = ResultCache.get().lookup(key);
+                ConnectionMetrics metrics = SqlMetrics.forConnection(step.connectionId);
+                if (cached != null) {
+                    metrics.recordCacheHit();
+                    logger.println("Using cached result of " + cached.size() + " row(s) from connection "
+                            + step.connectionId);
+                    getContext().onSuccess(new ResultRows(cached));
+                    return true;
+                }
+                metrics.recordCacheMiss();
+                cacheKey = key;
+            }
+            return startWhenAdmitted(step.connectionId, logger);
+        }
+        
+        @Override
+        void succeeded(Object result) {
+            // the rows are not handed out yet, so the cache gets the result as it was read
+            if (cacheKey != null && result instanceof ResultRows) {
+                ResultCache.get().put(cacheKey, ((ResultRows) result).getResult(), step.cacheTtl);
+            }
+        }
+        
+        @Override
+        boolean cancel(Throwable cause) {
+            runner.cancel();
+            VirtualChannel channel = agentChannel;
+            if (channel != null) {
+                try {
+                    channel.callAsync(new AgentSqlCallable.Cancel(agentExecutionId));
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to cancel statement on agent", e);
+                }
+            }
+            return false;
+        }
+        
+        @Override
+        Object run() throws Exception {
+            PrintStream logger = listener.getLogger();
+            setStatus("executing on " + step.connectionId);
+            
+            FilePath sqlFile = null;
             if (step.sql != null) {
-                sqlContent = step.sql;
                 logger.println("Executing SQL statement...");
             } else {
-                FilePath sqlFile = workspace.child(step.file);
+                sqlFile = workspace.child(step.file);
                 if (!sqlFile.exists()) {
                     throw new IllegalArgumentException("SQL file not found: " + step.file);
                 }
-                sqlContent = sqlFile.readToString();
                 logger.println("Executing SQL from file: " + step.file);
             }
             
             logger.println("Using database connection: " + step.connectionId);
             
             // Execute SQL
-            try (Connection connection = DatabaseService.getConnection(step.connectionId)) {
-                return executeSql(connection, sqlContent, logger);
-            } catch (SQLException e) {
-                logger.println("SQL execution failed: " + e.getMessage());
-                throw new RuntimeException("SQL execution failed", e);
-            }
-        }
-        
-        private Object executeSql(Connection connection, String sqlContent, PrintStream logger) throws SQLException {
-            // Split SQL content into individual statements
-            String[] statements = sqlContent.split(";");
-            List<Map<String, Object>> allResults = new ArrayList<>();
-            int executedStatements = 0;
-            
-            try (Statement statement = connection.createStatement()) {
-                for (String sql : statements) {
-                    sql = sql.trim();
-                    if (sql.isEmpty()) {
-                        continue;
+            try {
+                if (step.runOnAgent) {
+                    return runOnAgent(workspace, sqlFile, listener);
+                }
+                // files are streamed statement by statement, never read into memory as a whole
+                DatabaseDriver driver = DatabaseService.getDatabaseDriver(step.connectionId);
+                try (Reader script = sqlFile != null
+                        ? new InputStreamReader(sqlFile.read(), StandardCharsets.UTF_8)
+                        : new StringReader(step.sql)) {
+                    if (step.parallelism > 1) {
+                        return runParallel(driver, script, logger);
                     }
-                    
-                    logger.println("Executing: " + sql);
-                    executedStatements++;
-                    
-                    boolean hasResultSet = statement.execute(sql);
-                    
-                    if (hasResultSet && step.returnResult) {
-                        try (ResultSet resultSet = statement.getResultSet()) {
-                            List<Map<String, Object>> results = processResultSet(resultSet, logger);
-                            allResults.addAll(results);
-                        }
-                    } else {
-                        int updateCount = statement.getUpdateCount();
-                        if (updateCount >= 0) {
-                            logger.println("Rows affected: " + updateCount);
-                        }
+                    try (Connection connection = DatabaseService.getConnection(step.connectionId)) {
+                        return runner.run(connection, driver, script, logger);
                     }
                 }
+            } finally {
+                // also the statements that ran before a failure
+                SlowQueryAction.record(getContext().get(Run.class), runner.getSlowStatements());
             }
-            
-            logger.println("Successfully executed " + executedStatements + " statement(s)");
-            
-            return step.returnResult ? allResults : null;
         }
         
-        private List<Map<String, Object>> processResultSet(ResultSet resultSet, PrintStream logger) throws SQLException {
-            List<Map<String, Object>> results = new ArrayList<>();
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-            
-            // Print header
-            StringBuilder header = new StringBuilder();
-            for (int i = 1; i <= columnCount; i++) {
-                if (i > 1) header.append("\t");
-                header.append(metaData.getColumnName(i));
-            }
-            logger.println(header.toString());
-            
-            int rowCount = 0;
-            while (resultSet.next() && rowCount < step.maxRows) {
-                Map<String, Object> row = new LinkedHashMap<>();
-                StringBuilder rowOutput = new StringBuilder();
-                
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = metaData.getColumnName(i);
-                    Object value = resultSet.getObject(i);
-                    row.put(columnName, value);
-                    
-                    if (i > 1) rowOutput.append("\t");
-                    rowOutput.append(value != null ? value.toString() : "NULL");
-                }
-                
-                logger.println(rowOutput.toString());
-                results.add(row);
-                rowCount++;
+        /**
+         * Runs the statements on as many connections as the step asks for and the connection has free slots for.
+         * The extra slots are only taken if no other step is waiting for them.
+         */
+        private Object runParallel(@CheckForNull DatabaseDriver driver, Reader script, PrintStream logger)
+                throws Exception {
+            List<ConnectionAdmission.Permit> extra = DatabaseService.tryAcquireSlots(step.connectionId,
+                    step.parallelism - 1);
+            try {
+                return runner.runParallel(driver, script, 1 + extra.size(), logger);
+            } finally {
+                extra.forEach(ConnectionAdmission.Permit::close);
             }
-            
-            if (rowCount == step.maxRows && resultSet.next()) {
-                logger.println("... (output truncated at " + step.maxRows + " rows)");
+        }
+        
+        /**
+         * Runs the script in the JVM of the agent that owns the workspace, on a pool kept by that agent.
+         * Only the log output and the result cross the channel.
+         */
+        private Object runOnAgent(FilePath workspace, @CheckForNull FilePath sqlFile, TaskListener listener)
+                throws Exception {
+            VirtualChannel channel = workspace.getChannel();
+            if (channel == null) {
+                throw new AbortException("The agent of workspace " + workspace.getRemote() + " is offline");
             }
+            Computer computer = workspace.toComputer();
+            String agent = computer != null ? computer.getDisplayName() : workspace.getRemote();
+            listener.getLogger().println("Executing on agent: " + agent);
+            setStatus("executing on " + step.connectionId + " from agent " + agent);
+            ConnectionSpec connection = DatabaseService.getConnectionSpec(step.connectionId);
             
-            logger.println("Retrieved " + rowCount + " row(s)");
-            return results;
+            agentExecutionId = UUID.randomUUID().toString();
+            agentChannel = channel;
+            try {
+                return channel.call(new AgentSqlCallable(agentExecutionId, connection, runner, step.sql,
+                        sqlFile != null ? sqlFile.getRemote() : null, listener));
+            } finally {
+                agentChannel = null;
+            }
         }
     }
     
@@ -223,6 +517,7 @@ public class SqlStep extends Step {
             Set<Class<?>> context = new HashSet<>();
             context.add(TaskListener.class);
             context.add(FilePath.class);
+            context.add(Run.class);
             return context;
         }
         
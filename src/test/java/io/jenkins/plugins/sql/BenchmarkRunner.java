@@ -0,0 +1,42 @@
+package io.jenkins.plugins.sql;
+
+import jenkins.benchmark.jmh.BenchmarkFinder;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs every {@link jenkins.benchmark.jmh.JmhBenchmark} of the plugin with {@code mvn test -Dbenchmark}. Fork,
+ * warmup and measurement settings are fixed so that the results in {@code target/jmh-result.json} can be compared
+ * between runs. The GC profiler reports the bytes allocated per operation as {@code gc.alloc.rate.norm}.
+ */
+public class BenchmarkRunner {
+
+    @Test
+    public void runJmhBenchmarks() throws Exception {
+        assumeTrue("benchmarks only run with -Dbenchmark", System.getProperty("benchmark") != null);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .forks(2)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(2))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(2))
+                .addProfiler(GCProfiler.class)
+                .shouldFailOnError(true)
+                .result("target/jmh-result.json")
+                .resultFormat(ResultFormatType.JSON);
+        new BenchmarkFinder(getClass()).findBenchmarks(options);
+        new Runner(options.build()).run();
+    }
+}
@@ -2,10 +2,13 @@ package io.jenkins.plugins.sql.config;
 
 import hudson.util.Secret;
 import io.jenkins.plugins.sql.model.DatabaseConnection;
+import io.jenkins.plugins.sql.service.AgentDataSources;
+import io.jenkins.plugins.sql.service.ConnectionSpec;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,6 +38,74 @@ public class SqlGlobalConfigurationTest {
         assertEquals("org.h2.Driver", retrievedConn.getDriverClass());
     }
     
+    @Test
+    public void testPrewarmOpensPoolInBackground() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-prewarm", "Pre-warmed H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb13;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true);
+        conn.setPrewarm(true);
+        conn.setMinIdle(2);
+        connections.add(conn);
+        
+        config.setDatabaseConnections(connections);
+        
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!config.getPoolStatus("test-prewarm").startsWith("Opened") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        String status = config.getPoolStatus("test-prewarm");
+        assertTrue(status, status.startsWith("Opened 2 connection(s)"));
+        assertTrue(status, status.contains("0 active, 2 idle"));
+        assertEquals("Not opened yet", config.getPoolStatus("non-existent"));
+    }
+    
+    @Test
+    public void testConnectionsArePublishedAsIndexedSnapshot() {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            connections.add(new DatabaseConnection("conn-" + i, "Connection " + i, "org.h2.Driver", "jdbc:h2:mem:snapshot" + i, "sa", "secret-" + i, 5, 30, true));
+        }
+        connections.add(new DatabaseConnection("conn-7", "Duplicate", "org.h2.Driver", "jdbc:h2:mem:duplicate", "sa", "", 5, 30, true));
+        
+        config.setDatabaseConnections(connections);
+        connections.clear();
+        
+        assertEquals(501, config.getDatabaseConnections().size());
+        assertEquals("Connection 7", config.getDatabaseConnection("conn-7").getName());
+        assertEquals("Connection 499", config.getDatabaseConnection("conn-499").getName());
+        assertEquals("secret-42", config.getConnectionSpec("conn-42").getPassword());
+        assertNull(config.getConnectionSpec("conn-500"));
+        assertNull(config.getDatabaseConnection(null));
+        assertThrows(UnsupportedOperationException.class, () -> config.getDatabaseConnections().clear());
+    }
+    
+    @Test
+    public void testOlderSettingsDoNotReplaceNewerPool() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("versioned", "Versioned", "org.h2.Driver", "jdbc:h2:mem:versionOld;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        ConnectionSpec older = config.getConnectionSpec("versioned");
+        
+        List<DatabaseConnection> changed = new ArrayList<>();
+        changed.add(new DatabaseConnection("versioned", "Versioned", "org.h2.Driver", "jdbc:h2:mem:versionNew;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(changed);
+        ConnectionSpec newer = config.getConnectionSpec("versioned");
+        assertTrue(newer.getConfigVersion() > older.getConfigVersion());
+        
+        // an agent sees the settings of builds started before and after the change, in any order
+        assertTrue(urlOf(AgentDataSources.getConnection(older)).startsWith("jdbc:h2:mem:versionOld"));
+        assertTrue(urlOf(AgentDataSources.getConnection(newer)).startsWith("jdbc:h2:mem:versionNew"));
+        assertTrue(urlOf(AgentDataSources.getConnection(older)).startsWith("jdbc:h2:mem:versionNew"));
+    }
+    
+    private static String urlOf(Connection connection) throws Exception {
+        try (Connection c = connection) {
+            return c.getMetaData().getURL();
+        }
+    }
+    
     @Test
     public void testConnectionNotFound() {
         SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
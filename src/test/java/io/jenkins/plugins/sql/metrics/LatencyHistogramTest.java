@@ -0,0 +1,56 @@
+package io.jenkins.plugins.sql.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getP99());
+    }
+
+    @Test
+    public void testPercentilesUseBucketBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(3);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(700);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(72, histogram.getMean());
+        assertEquals(700, histogram.getMax());
+        assertEquals(5, histogram.getP50());
+        assertEquals(1000, histogram.getP95());
+        assertEquals(90L, (long) histogram.getBuckets().get("5"));
+        assertEquals(10L, (long) histogram.getBuckets().get("1000"));
+    }
+
+    @Test
+    public void testValuesBeyondLastBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(400000);
+        assertEquals(1L, (long) histogram.getBuckets().get("+Inf"));
+        assertEquals(400000, histogram.getP99());
+    }
+
+    @Test
+    public void testMirrorSeesEveryValue() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Long> mirrored = new ArrayList<>();
+        histogram.mirrorTo(mirrored::add);
+        histogram.record(12);
+        histogram.record(0);
+        assertEquals(2, mirrored.size());
+        assertEquals(12L, (long) mirrored.get(0));
+    }
+}
@@ -0,0 +1,54 @@
+package io.jenkins.plugins.sql.metrics;
+
+import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.model.DatabaseConnection;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SqlMetricsActionTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testMetricsAreServedAsJson() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-metrics", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb14;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-metrics");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-metrics', sql: 'SELECT X FROM SYSTEM_RANGE(1, 3)', returnResult: true\n" +
+            "}", true));
+        jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        JSONObject json = jenkins.createWebClient().getJSON("sql-metrics/api/json").getJSONObject();
+        assertTrue(json.getInt("executorThreads") > 0);
+        JSONArray all = json.getJSONArray("connections");
+        JSONObject metrics = null;
+        for (int i = 0; i < all.size(); i++) {
+            if ("test-metrics".equals(all.getJSONObject(i).getString("connectionId"))) {
+                metrics = all.getJSONObject(i);
+            }
+        }
+        assertNotNull(metrics);
+        assertEquals(3, metrics.getLong("rows"));
+        assertEquals(0, metrics.getLong("errors"));
+        assertEquals(0, metrics.getInt("active"));
+        assertEquals(1, metrics.getJSONObject("execution").getLong("count"));
+        assertEquals(1, metrics.getJSONObject("borrow").getLong("count"));
+        assertEquals(1, metrics.getJSONObject("slotWait").getLong("count"));
+    }
+}
@@ -0,0 +1,267 @@
+package io.jenkins.plugins.sql.model;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class SqlResultTest {
+
+    private static final int ROWS = 5000;
+    private static final int COLUMNS = 20;
+
+    private static Connection connection;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @BeforeClass
+    public static void createTable() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:sqlresult;DB_CLOSE_DELAY=-1", "sa", "");
+        StringBuilder ddl = new StringBuilder("CREATE TABLE wide (id BIGINT, flag BOOLEAN, amount DOUBLE, label VARCHAR(20)");
+        StringBuilder insert = new StringBuilder("INSERT INTO wide VALUES (?, ?, ?, ?");
+        for (int i = 4; i < COLUMNS; i++) {
+            ddl.append(", c").append(i).append(" INT");
+            insert.append(", ?");
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(ddl.append(")").toString());
+        }
+        try (PreparedStatement statement = connection.prepareStatement(insert.append(")").toString())) {
+            for (int row = 0; row < ROWS; row++) {
+                statement.setLong(1, row);
+                statement.setBoolean(2, row % 2 == 0);
+                statement.setDouble(3, row * 1.5);
+                statement.setString(4, row % 10 == 0 ? null : "label-" + row);
+                for (int i = 4; i < COLUMNS; i++) {
+                    statement.setInt(i + 1, row + i);
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    @AfterClass
+    public static void dropTable() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE wide");
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testRowViews() throws SQLException {
+        SqlResult result = readColumnar();
+        assertEquals(ROWS, result.size());
+        assertEquals(COLUMNS, result.getColumnCount());
+
+        Map<String, Object> row = result.get(10);
+        assertEquals(10L, row.get("ID"));
+        assertEquals(Boolean.TRUE, row.get("FLAG"));
+        assertEquals(15.0, row.get("AMOUNT"));
+        assertNull(row.get("LABEL"));
+        assertTrue(row.containsKey("LABEL"));
+        assertEquals(14, row.get("C4"));
+        assertNull(row.get("MISSING"));
+
+        assertEquals(readLegacy(), result);
+    }
+
+    @Test
+    public void testEmptyCopyKeepsColumns() throws SQLException {
+        SqlResult result = readColumnar();
+        SqlResult copy = result.emptyCopy();
+        assertTrue(copy.isEmpty());
+        assertEquals(result.getColumnNames(), copy.getColumnNames());
+    }
+
+    @Test
+    public void testDuplicateColumnNamesKeepLastValue() throws SQLException {
+        SqlResult result;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "SELECT w.id, w.label, v.id FROM wide w JOIN wide v ON v.id = w.id + 1 WHERE w.id = 11")) {
+            result = new SqlResult(resultSet.getMetaData());
+            assertTrue(resultSet.next());
+            result.appendRow(resultSet);
+        }
+
+        Map<String, Object> row = result.get(0);
+        assertEquals(12L, row.get("ID"));
+        assertEquals(2, row.size());
+        assertEquals(row.keySet().size(), row.entrySet().size());
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("ID", 11L);
+        expected.put("LABEL", "label-11");
+        expected.put("ID", 12L);
+        assertEquals(expected, row);
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(row.keySet()));
+    }
+
+    @Test
+    public void testRowSerializesWithoutResult() throws Exception {
+        SqlResult result = readColumnar();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(result.get(42));
+        }
+        assertTrue("row serialized to " + bytes.size() + " bytes", bytes.size() < 2048);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(readLegacy().get(42), in.readObject());
+        }
+    }
+
+    @Test
+    public void testRowsCanBeChangedWithoutChangingResult() throws Exception {
+        SqlResult result = readColumnar();
+        ResultRows rows = new ResultRows(result);
+
+        rows.get(11).put("LABEL", "changed");
+        rows.get(11).put("EXTRA", 1);
+        rows.get(13).remove("C4");
+        assertEquals("changed", rows.get(11).get("LABEL"));
+        assertEquals(COLUMNS + 1, rows.get(11).size());
+        assertFalse(rows.get(13).containsKey("C4"));
+
+        // only the changed rows are saved next to the columnar result
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(rows);
+        }
+        ResultRows restored;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            restored = (ResultRows) in.readObject();
+        }
+        assertEquals(rows, restored);
+        assertEquals(1, restored.get(11).get("EXTRA"));
+
+        rows.removeIf(row -> ((Long) row.get("ID")) % 2 == 0);
+        rows.sort((a, b) -> Long.compare((Long) b.get("ID"), (Long) a.get("ID")));
+        rows.add(new LinkedHashMap<>());
+        assertEquals(ROWS / 2 + 1, rows.size());
+        assertEquals((long) ROWS - 1, rows.get(0).get("ID"));
+        assertEquals("changed", rows.get(rows.size() - 1 - 6).get("LABEL"));
+
+        assertEquals(ROWS, result.size());
+        assertEquals("label-11", result.get(11).get("LABEL"));
+        assertFalse(result.get(11).containsKey("EXTRA"));
+        assertTrue(result.get(13).containsKey("C4"));
+        assertEquals(readLegacy(), result);
+    }
+
+    @Test
+    public void testSpilledResultReadsBackBlocks() throws Exception {
+        SpilledResult spilled;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM wide ORDER BY id");
+             SpilledResult.Writer writer = new SpilledResult.Writer(temp.newFolder())) {
+            SqlResult block = new SqlResult(resultSet.getMetaData());
+            while (resultSet.next()) {
+                block.appendRow(resultSet);
+                if (block.size() == SpilledResult.BLOCK_ROWS) {
+                    writer.append(block);
+                    block = block.continuation();
+                }
+            }
+            writer.append(block);
+            spilled = writer.finish();
+        }
+
+        List<Map<String, Object>> expected = readLegacy();
+        assertEquals(expected, spilled);
+        assertEquals(expected.subList(1020, 1030), spilled.subList(1020, 1030));
+        assertEquals(expected.subList(ROWS - 2, ROWS), spilled.page(ROWS - 2, 10));
+        assertEquals(42L, spilled.get(42).get("ID"));
+
+        // the handle stays small however many rows it stands for
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(spilled);
+        }
+        assertTrue("handle serialized to " + bytes.size() + " bytes", bytes.size() < 1024);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(expected.get(ROWS - 1), ((SpilledResult) in.readObject()).get(ROWS - 1));
+        }
+    }
+
+    /**
+     * Compares the bytes allocated while reading the same result into the columnar structure and into a list of
+     * {@link LinkedHashMap}s, the representation used before {@link SqlResult}.
+     */
+    @Test
+    public void testAllocatesLessThanListOfMaps() throws SQLException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long thread = Thread.currentThread().getId();
+
+        // warm up both paths before measuring
+        for (int i = 0; i < 3; i++) {
+            readLegacy();
+            readColumnar();
+        }
+
+        long start = threads.getThreadAllocatedBytes(thread);
+        readLegacy();
+        long legacy = threads.getThreadAllocatedBytes(thread) - start;
+
+        start = threads.getThreadAllocatedBytes(thread);
+        readColumnar();
+        long columnar = threads.getThreadAllocatedBytes(thread) - start;
+
+        assertTrue("columnar result allocated " + columnar + " bytes, list of maps " + legacy, columnar < legacy);
+    }
+
+    private static SqlResult readColumnar() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM wide ORDER BY id")) {
+            SqlResult result = new SqlResult(resultSet.getMetaData());
+            while (resultSet.next()) {
+                result.appendRow(resultSet);
+            }
+            result.trimToSize();
+            return result;
+        }
+    }
+
+    private static List<Map<String, Object>> readLegacy() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM wide ORDER BY id")) {
+            List<Map<String, Object>> results = new ArrayList<>();
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            int columnCount = metaData.getColumnCount();
+            while (resultSet.next()) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (int i = 1; i <= columnCount; i++) {
+                    row.put(metaData.getColumnName(i), resultSet.getObject(i));
+                }
+                results.add(row);
+            }
+            return results;
+        }
+    }
+}
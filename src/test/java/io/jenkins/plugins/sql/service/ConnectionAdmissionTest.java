@@ -0,0 +1,88 @@
+package io.jenkins.plugins.sql.service;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class ConnectionAdmissionTest {
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private final PrintStream logger = new PrintStream(log, true);
+
+    @Test
+    public void testGrantsImmediatelyBelowLimit() {
+        ConnectionAdmission admission = new ConnectionAdmission("db", 2);
+        assertTrue(admission.acquire("job-a", 0, logger).isDone());
+        assertTrue(admission.acquire("job-a", 0, logger).isDone());
+        assertFalse(admission.acquire("job-a", 0, logger).isDone());
+        assertEquals(2, admission.getInUse());
+        assertEquals(1, admission.getQueueDepth());
+        assertTrue(log.toString().contains("Waiting for DB slot on connection db (2 of 2 in use, 1 queued)"));
+    }
+
+    @Test
+    public void testFreedSlotsGoToTenantsInTurn() throws Exception {
+        ConnectionAdmission admission = new ConnectionAdmission("db", 1);
+        ConnectionAdmission.Permit held = admission.acquire("busy", 0, logger).get();
+
+        // one job floods the queue before another one asks
+        List<CompletableFuture<ConnectionAdmission.Permit>> busy = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            busy.add(admission.acquire("busy", 0, logger));
+        }
+        CompletableFuture<ConnectionAdmission.Permit> other = admission.acquire("other", 0, logger);
+
+        held.close();
+        assertTrue(busy.get(0).isDone());
+        assertFalse(other.isDone());
+
+        busy.get(0).get().close();
+        assertTrue(other.isDone());
+        assertFalse(busy.get(1).isDone());
+
+        other.get().close();
+        assertTrue(busy.get(1).isDone());
+        assertEquals(1, admission.getQueueDepth());
+        assertEquals(4, admission.getQueuedCount());
+    }
+
+    @Test
+    public void testCancelledWaiterLeavesQueue() throws Exception {
+        ConnectionAdmission admission = new ConnectionAdmission("db", 1);
+        ConnectionAdmission.Permit held = admission.acquire("job-a", 0, logger).get();
+        CompletableFuture<ConnectionAdmission.Permit> cancelled = admission.acquire("job-a", 0, logger);
+        CompletableFuture<ConnectionAdmission.Permit> next = admission.acquire("job-b", 0, logger);
+
+        cancelled.cancel(false);
+        assertEquals(1, admission.getQueueDepth());
+
+        held.close();
+        assertTrue(next.isDone());
+        assertEquals(1, admission.getInUse());
+    }
+
+    @Test
+    public void testPermitIsReleasedOnce() throws Exception {
+        ConnectionAdmission admission = new ConnectionAdmission("db", 1);
+        ConnectionAdmission.Permit permit = admission.acquire("job-a", 0, logger).get();
+        permit.close();
+        permit.close();
+        assertEquals(0, admission.getInUse());
+    }
+
+    @Test
+    public void testRaisingLimitGrantsWaiters() {
+        ConnectionAdmission admission = new ConnectionAdmission("db", 1);
+        admission.acquire("job-a", 0, logger);
+        CompletableFuture<ConnectionAdmission.Permit> waiting = admission.acquire("job-a", 0, logger);
+        admission.setLimit(2);
+        assertTrue(waiting.isDone());
+        assertTrue(log.toString().contains("Acquired DB slot on connection db after"));
+    }
+}
@@ -0,0 +1,56 @@
+package io.jenkins.plugins.sql.service;
+
+import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.model.DatabaseConnection;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Borrow and return throughput of {@link DatabaseService#getConnection(String)}, alone and with more threads than
+ * the pool has connections.
+ */
+@JmhBenchmark
+public class ConnectionPoolBenchmark {
+    private static final String CONNECTION_ID = "benchmark";
+    private static final int POOL_SIZE = 4;
+
+    public static class JenkinsState extends JmhBenchmarkState {
+        @Override
+        public void setup() throws Exception {
+            List<DatabaseConnection> connections = new ArrayList<>();
+            // no validation on borrow, so that the pool itself is measured rather than H2
+            connections.add(new DatabaseConnection(CONNECTION_ID, "Benchmark", "org.h2.Driver",
+                    "jdbc:h2:mem:benchmark-pool;DB_CLOSE_DELAY=-1", "sa", "", POOL_SIZE, 30, false));
+            SqlGlobalConfiguration.get().setDatabaseConnections(connections);
+            try (Connection connection = DatabaseService.getConnection(CONNECTION_ID)) {
+                // opens the pool before measuring
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void borrowUncontended(JenkinsState state, Blackhole blackhole) throws SQLException {
+        borrow(blackhole);
+    }
+
+    @Benchmark
+    @Threads(4 * POOL_SIZE)
+    public void borrowContended(JenkinsState state, Blackhole blackhole) throws SQLException {
+        borrow(blackhole);
+    }
+
+    private static void borrow(Blackhole blackhole) throws SQLException {
+        try (Connection connection = DatabaseService.getConnection(CONNECTION_ID)) {
+            blackhole.consume(connection);
+        }
+    }
+}
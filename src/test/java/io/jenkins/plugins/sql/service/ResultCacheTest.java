@@ -0,0 +1,149 @@
+package io.jenkins.plugins.sql.service;
+
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+import io.jenkins.plugins.sql.model.SqlResult;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+    private static Connection connection;
+
+    @BeforeClass
+    public static void openDatabase() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:resultcache;DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    @AfterClass
+    public static void closeDatabase() throws SQLException {
+        connection.close();
+    }
+
+    private static SqlResult query(int rows) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT X FROM SYSTEM_RANGE(1, " + rows + ")")) {
+            SqlResult result = new SqlResult(resultSet.getMetaData());
+            while (resultSet.next()) {
+                result.appendRow(resultSet);
+            }
+            result.trimToSize();
+            return result;
+        }
+    }
+
+    @Test
+    public void testKeyIgnoresWhitespaceOutsideQuotes() {
+        ResultCache.Key key = ResultCache.key("db", "SELECT *\n  FROM t WHERE name = 'a  b'", null, 1000, null);
+        assertEquals(key, ResultCache.key("db", "  SELECT * FROM t\tWHERE name = 'a  b';", null, 1000, null));
+        assertNotEquals(key, ResultCache.key("db", "SELECT * FROM t WHERE name = 'a b'", null, 1000, null));
+        assertNotEquals(key, ResultCache.key("other", "SELECT * FROM t WHERE name = 'a  b'", null, 1000, null));
+        assertNotEquals(key, ResultCache.key("db", "SELECT * FROM t WHERE name = 'a  b'", null, 10, null));
+    }
+
+    @Test
+    public void testKeyKeepsTheEndOfLineComments() {
+        // the first query adds 1, in the second one "+1" is part of the comment
+        assertNotEquals(ResultCache.key("db", "SELECT 1 --\n+1", null, 0, null),
+                ResultCache.key("db", "SELECT 1 -- +1", null, 0, null));
+        assertEquals(ResultCache.key("db", "SELECT 1 -- one\n   + 1", null, 0, null),
+                ResultCache.key("db", "SELECT 1 -- one\r\n+ 1", null, 0, null));
+        assertNotEquals(ResultCache.key("db", "SELECT 1 #\n+1", null, 0, DatabaseDriver.MYSQL),
+                ResultCache.key("db", "SELECT 1 # +1", null, 0, DatabaseDriver.MYSQL));
+        assertNotEquals(ResultCache.key("db", "SELECT 'a\\'  b'", null, 0, DatabaseDriver.MYSQL),
+                ResultCache.key("db", "SELECT 'a\\' b'", null, 0, DatabaseDriver.MYSQL));
+    }
+
+    @Test
+    public void testKeyComparesParameterValues() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("a", 1);
+        first.put("b", new StringBuilder("x"));
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("b", "x");
+        second.put("a", 1);
+        String sql = "SELECT * FROM t WHERE a = :a AND b = :b";
+        assertEquals(ResultCache.key("db", sql, first, 0, null), ResultCache.key("db", sql, second, 0, null));
+        assertNotEquals(ResultCache.key("db", "SELECT ?", Arrays.asList(1), 0, null),
+                ResultCache.key("db", "SELECT ?", Collections.singletonList(2), 0, null));
+    }
+
+    @Test
+    public void testKeyRejectsScriptsAndUpdates() {
+        for (String sql : Arrays.asList("DELETE FROM t", "SELECT 1; SELECT 2", "")) {
+            try {
+                ResultCache.key("db", sql, null, 0, null);
+                fail("Accepted " + sql);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("cacheTtl"));
+            }
+        }
+    }
+
+    @Test
+    public void testLookupAndInvalidate() throws SQLException {
+        ResultCache cache = new ResultCache(1 << 20);
+        ResultCache.Key key = ResultCache.key("db", "SELECT X FROM SYSTEM_RANGE(1, 3)", null, 0, null);
+        assertNull(cache.lookup(key));
+        SqlResult result = query(3);
+        cache.put(key, result, 60);
+        assertSame(result, cache.lookup(key));
+        assertEquals(result.estimateBytes(), cache.getBytes());
+
+        cache.invalidate("other");
+        assertEquals(1, cache.getEntryCount());
+        cache.invalidate("db");
+        assertNull(cache.lookup(key));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testExpiredResultsAreDropped() throws SQLException {
+        ResultCache cache = new ResultCache(1 << 20);
+        ResultCache.Key key = ResultCache.key("db", "SELECT X FROM SYSTEM_RANGE(1, 3)", null, 0, null);
+        cache.put(key, query(3), 0);
+        assertNull(cache.lookup(key));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResultsAreEvicted() throws SQLException {
+        SqlResult result = query(100);
+        ResultCache cache = new ResultCache(result.estimateBytes() * 4);
+        ResultCache.Key[] keys = new ResultCache.Key[4];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ResultCache.key("db", "SELECT " + i, null, 0, null);
+            cache.put(keys[i], result, 60);
+        }
+        assertEquals(4, cache.getEntryCount());
+        cache.lookup(keys[0]);
+        cache.put(ResultCache.key("db", "SELECT 4", null, 0, null), result, 60);
+
+        assertEquals(4, cache.getEntryCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.lookup(keys[0]));
+        assertNull(cache.lookup(keys[1]));
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+    }
+
+    @Test
+    public void testLargeResultsAreNotCached() throws SQLException {
+        SqlResult result = query(100);
+        ResultCache cache = new ResultCache(result.estimateBytes() * 3);
+        ResultCache.Key key = ResultCache.key("db", "SELECT 1", null, 0, null);
+        cache.put(key, result, 60);
+        assertNull(cache.lookup(key));
+    }
+}
@@ -0,0 +1,95 @@
+package io.jenkins.plugins.sql.service;
+
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SqlParametersTest {
+
+    @Test
+    public void testNamedParametersAreRewritten() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("first", 1);
+        values.put("second_2", 2);
+        SqlParameters parameters = SqlParameters.parse(
+                "SELECT * FROM t WHERE a = :first AND b = :second_2", values, null);
+        assertEquals("SELECT * FROM t WHERE a = ? AND b = ?", parameters.getSql());
+    }
+
+    @Test
+    public void testLiteralsCommentsAndCastsAreKept() {
+        String sql = "SELECT ':skip', \"col:x\", created::date -- :comment\n"
+                + "FROM t /* :block */ WHERE id = :id";
+        SqlParameters parameters = SqlParameters.parse(sql, Collections.singletonMap("id", 1), null);
+        assertEquals("SELECT ':skip', \"col:x\", created::date -- :comment\n"
+                + "FROM t /* :block */ WHERE id = ?", parameters.getSql());
+    }
+
+    @Test
+    public void testPositionalParametersKeepStatement() {
+        SqlParameters parameters = SqlParameters.parse("SELECT * FROM t WHERE a = ? AND b = ?", Arrays.asList(1, 2), null);
+        assertEquals("SELECT * FROM t WHERE a = ? AND b = ?", parameters.getSql());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsScalarParams() {
+        SqlParameters.parse("SELECT 1", "value", null);
+    }
+
+    @Test
+    public void testDialectQuotingAndCommentsAreKept() {
+        String postgres = "DO $$ BEGIN PERFORM :inside; END $$; SELECT $tag$ :tagged $tag$, :id";
+        assertEquals("DO $$ BEGIN PERFORM :inside; END $$; SELECT $tag$ :tagged $tag$, ?",
+                SqlParameters.parse(postgres, Collections.singletonMap("id", 1), DatabaseDriver.POSTGRESQL).getSql());
+
+        String mysql = "SELECT 'it\\'s :quoted', id # :comment\nFROM t WHERE id = :id";
+        assertEquals("SELECT 'it\\'s :quoted', id # :comment\nFROM t WHERE id = ?",
+                SqlParameters.parse(mysql, Collections.singletonMap("id", 1), DatabaseDriver.MYSQL).getSql());
+    }
+
+    @Test
+    public void testMissingAndExtraNamedParametersAreNamed() {
+        String sql = "SELECT * FROM t WHERE a = :first AND b = :second";
+        try {
+            SqlParameters.parse(sql, Collections.singletonMap("first", 1), null);
+            fail("missing parameter accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("No value given for parameter :second", e.getMessage());
+        }
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("first", 1);
+        values.put("second", 2);
+        values.put("third", 3);
+        try {
+            SqlParameters.parse(sql, values, null);
+            fail("extra parameter accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Parameter :third is not used in the statement", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testPositionalValuesMustMatchPlaceholders() {
+        String sql = "SELECT '?' FROM t WHERE a = ? AND b = ? -- ?";
+        SqlParameters.parse(sql, Arrays.asList(1, 2), null);
+        try {
+            SqlParameters.parse(sql, Collections.singletonList(1), null);
+            fail("missing value accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("No value given for placeholder 2 of the 2 in the statement", e.getMessage());
+        }
+        try {
+            SqlParameters.parse(sql, Arrays.asList(1, 2, 3), null);
+            fail("extra value accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Value 3 has no placeholder, the statement has only 2", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package io.jenkins.plugins.sql.service;
+
+import io.jenkins.plugins.sql.model.DatabaseDriver;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SqlScriptTokenizerTest {
+
+    @Test
+    public void testDelimitersInLiteralsAndComments() throws IOException {
+        assertEquals(Arrays.asList("SELECT 'a;b', \"c;d\" FROM t", "INSERT INTO t VALUES ('it''s;')"),
+                tokenize(null, "-- header; comment\nSELECT 'a;b', \"c;d\" FROM t; /* x; */ "
+                        + "INSERT INTO t VALUES ('it''s;');\n-- trailing;\n"));
+    }
+
+    @Test
+    public void testMySqlDelimiterCommand() throws IOException {
+        assertEquals(Arrays.asList("SELECT 'a\\';b'", "CREATE PROCEDURE p() BEGIN SELECT 1; SELECT 2; END", "SELECT 3"),
+                tokenize(DatabaseDriver.MYSQL, "SELECT 'a\\';b'; # hash;\nDELIMITER //\n"
+                        + "CREATE PROCEDURE p() BEGIN SELECT 1; SELECT 2; END//\nDELIMITER ;\nSELECT 3;"));
+    }
+
+    @Test
+    public void testPostgresDollarQuoting() throws IOException {
+        assertEquals(Arrays.asList(
+                "CREATE FUNCTION f() RETURNS int AS $$ BEGIN RETURN 1; END; $$ LANGUAGE plpgsql",
+                "SELECT $1, a$b, $tag$ x;$$ y $tag$",
+                "SELECT 1::int"),
+                tokenize(DatabaseDriver.POSTGRESQL, "CREATE FUNCTION f() RETURNS int AS $$ BEGIN RETURN 1; END; $$ LANGUAGE plpgsql;\n"
+                        + "SELECT $1, a$b, $tag$ x;$$ y $tag$; /* a /* b; */ c; */ SELECT 1::int;"));
+    }
+
+    @Test
+    public void testSqlServerGoSeparator() throws IOException {
+        assertEquals(Arrays.asList("CREATE PROCEDURE p AS BEGIN SELECT 1; SELECT [a;b]; END", "BEGIN TRANSACTION", "SELECT 2", "SELECT 3"),
+                tokenize(DatabaseDriver.SQLSERVER, "CREATE PROCEDURE p AS BEGIN SELECT 1; SELECT [a;b]; END\nGO\n"
+                        + "BEGIN TRANSACTION;\nSELECT 2;\ngo\nSELECT 3"));
+    }
+
+    @Test
+    public void testOraclePlSqlBlocks() throws IOException {
+        assertEquals(Arrays.asList("SELECT 1 FROM dual", "BEGIN\n  x := 1;\n  y := 2;\nEND;", "SELECT 4/2 FROM dual"),
+                tokenize(DatabaseDriver.ORACLE, "SELECT 1 FROM dual;\n/\nBEGIN\n  x := 1;\n  y := 2;\nEND;\n/\nSELECT 4/2 FROM dual;\n"));
+    }
+
+    /**
+     * Reads a script far larger than the tokenizer's buffer, one character at a time from the reader.
+     */
+    @Test
+    public void testStreamsLargeScript() throws IOException {
+        int statements = 20000;
+        SqlScriptTokenizer tokenizer = new SqlScriptTokenizer(new GeneratedScript(statements), DatabaseDriver.H2);
+        int count = 0;
+        String sql;
+        while ((sql = tokenizer.next()) != null) {
+            assertEquals("INSERT INTO t VALUES (" + count + ", 'x;y')", sql);
+            count++;
+        }
+        assertEquals(statements, count);
+    }
+
+    @Test
+    public void testIsQuery() {
+        assertTrue(SqlScriptTokenizer.isQuery("select * from t"));
+        assertTrue(SqlScriptTokenizer.isQuery("WITH x AS (SELECT 1) SELECT * FROM x"));
+        assertFalse(SqlScriptTokenizer.isQuery("INSERT INTO t VALUES (1)"));
+    }
+
+    private static List<String> tokenize(DatabaseDriver dialect, String script) throws IOException {
+        List<String> statements = new ArrayList<>();
+        try (SqlScriptTokenizer tokenizer = new SqlScriptTokenizer(new StringReader(script), dialect)) {
+            String sql;
+            while ((sql = tokenizer.next()) != null) {
+                statements.add(sql);
+            }
+        }
+        return statements;
+    }
+
+    private static class GeneratedScript extends Reader {
+        private final int statements;
+        private int index;
+        private String current = "";
+        private int offset;
+
+        GeneratedScript(int statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) {
+            if (offset == current.length()) {
+                if (index == statements) {
+                    return -1;
+                }
+                current = "INSERT INTO t VALUES (" + index++ + ", 'x;y');\n";
+                offset = 0;
+            }
+            buffer[off] = current.charAt(offset++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.jenkins.plugins.sql.step;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class QueryLogTest {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private QueryLog log(String mode, long budget) {
+        return new QueryLog(new PrintStream(output, false), mode, budget);
+    }
+
+    private String written() {
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testModes() {
+        assertEquals(Integer.MAX_VALUE, QueryLog.rowLimit("full"));
+        assertEquals(0, QueryLog.rowLimit("summary"));
+        assertEquals(0, QueryLog.rowLimit("none"));
+        assertEquals(25, QueryLog.rowLimit("sample:25"));
+        for (String mode : new String[] {"sample:0", "sample:x", "sample:", "verbose", null}) {
+            try {
+                QueryLog.rowLimit(mode);
+                fail("Accepted " + mode);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("'logMode'"));
+            }
+        }
+    }
+
+    @Test
+    public void testOutputIsBufferedUntilFlush() {
+        QueryLog log = log("full", 1000);
+        log.statement("SELECT 1");
+        log.row("1");
+        assertEquals("", written());
+        log.flush();
+        assertEquals("Executing: SELECT 1\n1\n", written());
+    }
+
+    @Test
+    public void testRunningStatementIsWrittenWithoutFlush() throws InterruptedException {
+        QueryLog log = log("summary", 1000);
+        log.statement("CREATE INDEX big_index ON big_table (id)");
+        long deadline = System.currentTimeMillis() + QueryLog.FLUSH_INTERVAL_MILLIS + 5000;
+        while (written().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals("Executing: CREATE INDEX big_index ON big_table (id)\n", written());
+    }
+
+    @Test
+    public void testLongStatementsAreShortened() {
+        StringBuilder sql = new StringBuilder("INSERT INTO t VALUES ");
+        while (sql.length() < QueryLog.MAX_STATEMENT_LENGTH + 500) {
+            sql.append("(1), ");
+        }
+        QueryLog log = log("full", 1 << 20);
+        log.statement(sql.toString());
+        log.flush();
+        assertTrue(written().contains(" ... (" + (sql.length() - QueryLog.MAX_STATEMENT_LENGTH) + " more characters)"));
+        assertTrue(written().length() < QueryLog.MAX_STATEMENT_LENGTH + 100);
+    }
+
+    @Test
+    public void testBudgetStopsOutputButNotSummary() {
+        QueryLog log = log("full", 30);
+        log.statement("SELECT 1");
+        log.row("row 1");
+        assertTrue(log.acceptsRows());
+        log.row("row 2 is far too long for the budget");
+        assertFalse(log.acceptsRows());
+        log.detail("Retrieved 2 row(s)");
+        log.summary("Successfully executed 1 statement(s)");
+        log.flush();
+        assertEquals("Executing: SELECT 1\nrow 1\n"
+                + "... (build log limit of 30 bytes reached for this step, further query output is not shown)\n"
+                + "Successfully executed 1 statement(s)\n", written());
+    }
+
+    @Test
+    public void testNoneOnlyPrintsSummary() {
+        QueryLog log = log("none", 1000);
+        log.statement("SELECT 1");
+        log.detail("Rows affected: 1");
+        assertFalse(log.acceptsRows());
+        log.summary("Successfully executed 1 statement(s)");
+        log.flush();
+        assertEquals("Successfully executed 1 statement(s)\n", written());
+    }
+}
@@ -0,0 +1,143 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.model.Result;
+import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.model.DatabaseConnection;
+import io.jenkins.plugins.sql.service.DatabaseService;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SqlEachRowStepTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Before
+    public void setUp() {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:eachrow;DB_CLOSE_DELAY=-1", "sa", "", 10, 30, true);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+    }
+
+    @Test
+    public void testEachRow() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "each-row");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "sqlQuery connectionId: 'test-h2', sql: \"CREATE TABLE items (id INT, name VARCHAR(50)); INSERT INTO items VALUES (1, 'one'), (2, 'two'), (3, 'three')\"\n" +
+            "def count = sqlEachRow(connectionId: 'test-h2', sql: 'SELECT * FROM items ORDER BY id') {\n" +
+            "  def row = sqlRow()\n" +
+            "  echo \"Row ${row.ID}: ${row.NAME}\"\n" +
+            "}\n" +
+            "echo \"Total: ${count}\"\n" +
+            "}", true));
+
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Row 1: one", run);
+        jenkins.assertLogContains("Row 3: three", run);
+        jenkins.assertLogContains("Total: 3", run);
+    }
+
+    @Test
+    public void testEachChunk() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "each-chunk");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "sqlQuery connectionId: 'test-h2', sql: \"CREATE TABLE chunks (id INT); INSERT INTO chunks VALUES (1), (2), (3), (4), (5)\"\n" +
+            "sqlEachRow(connectionId: 'test-h2', sql: 'SELECT * FROM chunks ORDER BY id', chunkSize: 2) {\n" +
+            "  echo \"Chunk of ${sqlRow().size()}\"\n" +
+            "}\n" +
+            "}", true));
+
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Chunk of 2", run);
+        jenkins.assertLogContains("Chunk of 1", run);
+        jenkins.assertLogContains("Processed 5 row(s)", run);
+    }
+
+    @Test
+    public void testBodyFailureClosesCursor() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "each-row-failure");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "sqlQuery connectionId: 'test-h2', sql: \"CREATE TABLE failing (id INT); INSERT INTO failing VALUES (1), (2)\"\n" +
+            "sqlEachRow(connectionId: 'test-h2', sql: 'SELECT * FROM failing') {\n" +
+            "  error 'stop here'\n" +
+            "}\n" +
+            "}", true));
+
+        WorkflowRun run = jenkins.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0));
+        jenkins.assertLogContains("stop here", run);
+        assertEquals(0, DatabaseService.getActiveConnections("test-h2"));
+    }
+
+    @Test
+    public void testAbortWhileFetchingNextChunk() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        // lazy execution makes H2 scan for the second row only when it is fetched
+        connections.add(new DatabaseConnection("test-lazy", "Lazy H2 Database", "org.h2.Driver", "jdbc:h2:mem:eachrowlazy;DB_CLOSE_DELAY=-1;LAZY_QUERY_EXECUTION=TRUE", "sa", "", 1, 30, true));
+        config.setDatabaseConnections(connections);
+
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "each-row-abort");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "sqlEachRow(connectionId: 'test-lazy', sql: 'SELECT X AS ID FROM SYSTEM_RANGE(1, 1000000000000) WHERE X = 1 OR X = 1000000000000') {\n" +
+            "  echo \"Row ${sqlRow().ID}\"\n" +
+            "}\n" +
+            "}", true));
+
+        WorkflowRun run = job.scheduleBuild2(0).waitForStart();
+        jenkins.waitForMessage("Row 1", run);
+        // the first body has finished and the second fetch is scanning
+        waitForStatus(run, "fetching rows from test-lazy");
+        run.doStop();
+        jenkins.assertBuildStatus(Result.ABORTED, jenkins.waitForCompletion(run));
+        assertEquals(0, DatabaseService.getActiveConnections("test-lazy"));
+    }
+
+    @Test
+    public void testNestedQueryOnSameConnectionIsRejected() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-single", "Single H2 Database", "org.h2.Driver", "jdbc:h2:mem:eachrowsingle;DB_CLOSE_DELAY=-1", "sa", "", 1, 30, true));
+        config.setDatabaseConnections(connections);
+
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "each-row-nested");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "sqlQuery connectionId: 'test-single', sql: \"CREATE TABLE nested (id INT); INSERT INTO nested VALUES (1), (2)\"\n" +
+            "sqlEachRow(connectionId: 'test-single', sql: 'SELECT * FROM nested') {\n" +
+            "  sqlQuery connectionId: 'test-single', sql: \"SELECT * FROM nested WHERE id = ${sqlRow().ID}\", returnResult: true\n" +
+            "}\n" +
+            "}", true));
+
+        WorkflowRun run = jenkins.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0));
+        jenkins.assertLogContains("sqlQuery cannot use connection 'test-single' inside the body of sqlEachRow", run);
+        assertEquals(0, DatabaseService.getActiveConnections("test-single"));
+    }
+
+    private static void waitForStatus(WorkflowRun run, String status) throws Exception {
+        while (true) {
+            for (StepExecution execution : run.getExecution().getCurrentExecutions(true).get()) {
+                if (status.equals(execution.getStatus())) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+    }
+}
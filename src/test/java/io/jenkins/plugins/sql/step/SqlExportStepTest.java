@@ -0,0 +1,87 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.FilePath;
+import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.model.DatabaseConnection;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SqlExportStepTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Before
+    public void setUp() {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:export;DB_CLOSE_DELAY=-1", "sa", "", 10, 30, true);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+    }
+
+    @Test
+    public void testExportCsv() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "export-csv");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: \"CREATE TABLE people (id INT, name VARCHAR(50), note VARCHAR(50)); " +
+            "INSERT INTO people VALUES (1, 'Doe, John', NULL); INSERT INTO people VALUES (2, 'Max \\\"M\\\"', '')\"\n" +
+            "  def export = sqlExport connectionId: 'test-h2', sql: 'SELECT id, name, note FROM people ORDER BY id', file: 'out/people.csv'\n" +
+            "  echo \"Exported ${export.rows} rows\"\n" +
+            "}", true));
+
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Exported 2 rows", run);
+        FilePath file = jenkins.jenkins.getWorkspaceFor(job).child("out/people.csv");
+        assertEquals("ID,NAME,NOTE\r\n1,\"Doe, John\",\r\n2,\"Max \"\"M\"\"\",\"\"\r\n", file.readToString());
+    }
+
+    @Test
+    public void testExportGzipJsonLines() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "export-jsonl");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: \"CREATE TABLE events (id BIGINT, kind VARCHAR(20), ok BOOLEAN); " +
+            "INSERT INTO events VALUES (1, 'build', TRUE); INSERT INTO events VALUES (2, NULL, FALSE)\"\n" +
+            "  def export = sqlExport connectionId: 'test-h2', sql: 'SELECT * FROM events WHERE id > ? ORDER BY id', params: [0], file: 'events.jsonl.gz'\n" +
+            "  echo \"Exported ${export.rows} rows, ${export.bytes > 0}\"\n" +
+            "}", true));
+
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Exporting to JSONL (gzip) file events.jsonl.gz", run);
+        jenkins.assertLogContains("Exported 2 rows, true", run);
+        FilePath file = jenkins.jenkins.getWorkspaceFor(job).child("events.jsonl.gz");
+        try (InputStream in = new GZIPInputStream(file.read())) {
+            assertEquals("{\"ID\":1,\"KIND\":\"build\",\"OK\":true}\n{\"ID\":2,\"KIND\":null,\"OK\":false}\n",
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testFailedExportLeavesNoFile() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "export-failed");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlExport connectionId: 'test-h2', sql: 'SELECT * FROM missing_table', file: 'missing.csv'\n" +
+            "}", true));
+
+        WorkflowRun run = jenkins.assertBuildStatus(hudson.model.Result.FAILURE, job.scheduleBuild2(0));
+        jenkins.assertLogContains("SQL export failed", run);
+        assertFalse(jenkins.jenkins.getWorkspaceFor(job).child("missing.csv").exists());
+    }
+}
@@ -0,0 +1,76 @@
+package io.jenkins.plugins.sql.step;
+
+import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.model.DatabaseConnection;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SqlLoadStepTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Before
+    public void setUp() {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:load;DB_CLOSE_DELAY=-1", "sa", "", 10, 30, true);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+    }
+
+    @Test
+    public void testLoadCsv() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "load-csv");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'CREATE TABLE people (id INT, name VARCHAR(50), born DATE)'\n" +
+            "  writeFile file: 'people.csv', text: 'id,name,born\\n1,\"Doe, John\",1980-01-02\\n2,Jane,\\n3,\"Max \"\"M\"\"\",1990-12-31\\n'\n" +
+            "  def rows = sqlLoad connectionId: 'test-h2', file: 'people.csv', table: 'people', batchSize: 2, commitEvery: 2\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', sql: 'SELECT name FROM people WHERE born IS NULL', returnResult: true\n" +
+            "  echo \"Loaded ${rows}, missing date: ${result[0].NAME}\"\n" +
+            "}", true));
+
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Committed 2 row(s)", run);
+        jenkins.assertLogContains("Loaded 3, missing date: Jane", run);
+    }
+
+    @Test
+    public void testLoadJsonLines() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "load-jsonl");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'CREATE TABLE events (id BIGINT, kind VARCHAR(20), ok BOOLEAN)'\n" +
+            "  writeFile file: 'events.jsonl', text: '{\"id\": 1, \"kind\": \"build\", \"ok\": true}\\n\\n{\"id\": 2, \"kind\": null, \"ok\": false}\\n'\n" +
+            "  sqlLoad connectionId: 'test-h2', file: 'events.jsonl', table: 'events'\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*) AS total FROM events WHERE kind IS NULL AND NOT ok', returnResult: true\n" +
+            "  echo \"Matching: ${result[0].TOTAL}\"\n" +
+            "}", true));
+
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Loaded 2 row(s) into events", run);
+        jenkins.assertLogContains("Matching: 1", run);
+    }
+
+    @Test
+    public void testRejectsInvalidColumnName() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "load-invalid");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  writeFile file: 'bad.csv', text: 'id,\"name) VALUES (1); DROP TABLE x; --\"\\n1,a\\n'\n" +
+            "  sqlLoad connectionId: 'test-h2', file: 'bad.csv', table: 'people'\n" +
+            "}", true));
+
+        WorkflowRun run = jenkins.assertBuildStatus(hudson.model.Result.FAILURE, job.scheduleBuild2(0));
+        jenkins.assertLogContains("Invalid column name", run);
+    }
+}
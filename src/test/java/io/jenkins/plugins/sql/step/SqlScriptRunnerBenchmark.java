@@ -0,0 +1,116 @@
+package io.jenkins.plugins.sql.step;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Throughput of {@link SqlScriptRunner} on in-process H2: rows per second converted into a result, and statements
+ * per second split from a script and executed. One operation is one row or one statement.
+ */
+@JmhBenchmark
+public class SqlScriptRunnerBenchmark {
+    static final int ROWS = 5_000;
+    static final int STATEMENTS = 1_000;
+
+    @State(Scope.Thread)
+    public static class ResultState {
+        /**
+         * {@code full} includes formatting every row for the build log
+         */
+        @Param({"none", "full"})
+        public String logMode;
+
+        Connection connection;
+        SqlScriptRunner runner;
+        PrintStream log;
+
+        @Setup(Level.Trial)
+        public void setup() throws SQLException {
+            // the in-memory database goes away with its last connection
+            connection = DriverManager.getConnection("jdbc:h2:mem:benchmark-results", "sa", "");
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE wide AS SELECT X AS id, MOD(X, 2) = 0 AS flag, "
+                        + "CAST(X * 1.5 AS DOUBLE) AS amount, CONCAT('label-', X) AS label, "
+                        + "DATEADD(SECOND, X, TIMESTAMP '2024-01-01 00:00:00') AS created, "
+                        + "CAST(MOD(X, 1000) AS INT) AS c1, CAST(MOD(X, 999) AS INT) AS c2, "
+                        + "CAST(MOD(X, 998) AS INT) AS c3, CAST(MOD(X, 997) AS INT) AS c4 "
+                        + "FROM SYSTEM_RANGE(1, " + ROWS + ")");
+            }
+            SqlStep step = new SqlStep("benchmark");
+            step.setReturnResult(true);
+            step.setMaxRows(0);
+            step.setLogMode(logMode);
+            runner = new SqlScriptRunner(step);
+            log = new PrintStream(OutputStream.nullOutputStream());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ScriptState {
+        @Param({"false", "true"})
+        public boolean batch;
+
+        Connection connection;
+        SqlScriptRunner runner;
+        PrintStream log;
+        String script;
+
+        @Setup(Level.Trial)
+        public void setup() throws SQLException {
+            connection = DriverManager.getConnection("jdbc:h2:mem:benchmark-script", "sa", "");
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE counter (id INT PRIMARY KEY, n BIGINT)");
+                statement.execute("INSERT INTO counter VALUES (1, 0)");
+            }
+            StringBuilder statements = new StringBuilder();
+            for (int i = 0; i < STATEMENTS; i++) {
+                // comments and literals keep the tokenizer on its slower paths
+                statements.append("-- statement ").append(i).append('\n')
+                        .append("UPDATE counter SET n = n + ").append(i % 7).append(" WHERE id = 1 AND 'a;b' <> 'c';\n");
+            }
+            script = statements.toString();
+            SqlStep step = new SqlStep("benchmark");
+            step.setBatch(batch);
+            step.setLogMode("none");
+            runner = new SqlScriptRunner(step);
+            log = new PrintStream(OutputStream.nullOutputStream());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public Object convertResult(ResultState state) throws Exception {
+        return state.runner.run(state.connection, null, new StringReader("SELECT * FROM wide"), state.log);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STATEMENTS)
+    public Object executeScript(ScriptState state) throws Exception {
+        return state.runner.run(state.connection, null, new StringReader(state.script), state.log);
+    }
+}
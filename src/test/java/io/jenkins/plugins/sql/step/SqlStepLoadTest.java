@@ -0,0 +1,199 @@
+package io.jenkins.plugins.sql.step;
+
+import hudson.model.queue.QueueTaskFuture;
+import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.metrics.ConnectionMetrics;
+import io.jenkins.plugins.sql.metrics.SqlMetrics;
+import io.jenkins.plugins.sql.model.DatabaseConnection;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepAtomNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs many pipelines at once against one shared connection and reports throughput, step latency, connection slot
+ * waits and controller heap. Skipped unless {@code -DloadTest} is set, for example:
+ * <pre>
+ * mvn test -Dtest=SqlStepLoadTest -DloadTest -DloadTest.pipelines=100 -DloadTest.poolSize=10 -DloadTest.maxP99Millis=500
+ * </pre>
+ * Thresholds of 0 are not checked.
+ */
+public class SqlStepLoadTest {
+    private static final String CONNECTION_ID = "load-h2";
+    private static final String URL = "jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1";
+
+    private static final int PIPELINES = Integer.getInteger("loadTest.pipelines", 100);
+    private static final int ITERATIONS = Integer.getInteger("loadTest.iterations", 10);
+    private static final int POOL_SIZE = Integer.getInteger("loadTest.poolSize", 10);
+    private static final double MIN_THROUGHPUT = Double.parseDouble(System.getProperty("loadTest.minThroughput", "0"));
+    private static final long MAX_P99_MILLIS = Long.getLong("loadTest.maxP99Millis", 0);
+    private static final long MAX_SLOT_WAIT_P99_MILLIS = Long.getLong("loadTest.maxSlotWaitP99Millis", 0);
+    private static final long MAX_HEAP_MB = Long.getLong("loadTest.maxHeapMb", 0);
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    {
+        jenkins.timeout = Integer.getInteger("loadTest.timeoutSeconds", 1800);
+    }
+
+    @Test
+    public void testConcurrentPipelines() throws Exception {
+        assumeTrue("the load test only runs with -DloadTest", System.getProperty("loadTest") != null);
+
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection(CONNECTION_ID, "Load Test H2 Database", "org.h2.Driver", URL, "sa", "", POOL_SIZE, 30, true));
+        config.setDatabaseConnections(connections);
+        try (Connection connection = DriverManager.getConnection(URL, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE events (job INT, seq INT, payload VARCHAR(100))");
+            statement.execute("CREATE INDEX events_job ON events (job)");
+        }
+        jenkins.jenkins.setNumExecutors(PIPELINES);
+
+        List<WorkflowJob> jobs = new ArrayList<>();
+        for (int i = 0; i < PIPELINES; i++) {
+            WorkflowJob job = jenkins.createProject(WorkflowJob.class, "load-" + i);
+            job.setDefinition(new CpsFlowDefinition(script(i), true));
+            jobs.add(job);
+        }
+
+        HeapSampler heap = new HeapSampler();
+        long start = System.nanoTime();
+        List<QueueTaskFuture<WorkflowRun>> builds = new ArrayList<>();
+        for (WorkflowJob job : jobs) {
+            builds.add(job.scheduleBuild2(0));
+        }
+        List<WorkflowRun> runs = new ArrayList<>();
+        for (QueueTaskFuture<WorkflowRun> build : builds) {
+            runs.add(jenkins.assertBuildStatusSuccess(build));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long peakHeapMb = heap.stop() / (1024 * 1024);
+
+        List<Long> latencies = new ArrayList<>();
+        for (WorkflowRun run : runs) {
+            latencies.addAll(stepLatencies(run));
+        }
+        Collections.sort(latencies);
+        double throughput = latencies.size() / seconds;
+        long p50 = percentile(latencies, 50);
+        long p99 = percentile(latencies, 99);
+        ConnectionMetrics metrics = SqlMetrics.forConnection(CONNECTION_ID);
+
+        System.out.println(String.format(Locale.ROOT, "Load test: %d pipelines x %d iterations on a pool of %d connection(s)",
+                PIPELINES, ITERATIONS, POOL_SIZE));
+        System.out.println(String.format(Locale.ROOT, "  steps:       %d in %.1f s, %.1f steps/s", latencies.size(), seconds, throughput));
+        System.out.println(String.format(Locale.ROOT, "  step time:   p50 %d ms, p99 %d ms, max %d ms",
+                p50, p99, latencies.get(latencies.size() - 1)));
+        System.out.println(String.format(Locale.ROOT, "  slot wait:   p50 %d ms, p99 %d ms, %d timeout(s)",
+                metrics.getSlotWait().getP50(), metrics.getSlotWait().getP99(), metrics.getSlotTimeouts()));
+        System.out.println(String.format(Locale.ROOT, "  borrow:      p50 %d ms, p99 %d ms",
+                metrics.getBorrow().getP50(), metrics.getBorrow().getP99()));
+        System.out.println(String.format(Locale.ROOT, "  heap:        peak %d MB used", peakHeapMb));
+
+        assertTrue(String.format(Locale.ROOT, "throughput of %.1f steps/s is below %.1f", throughput, MIN_THROUGHPUT),
+                MIN_THROUGHPUT <= 0 || throughput >= MIN_THROUGHPUT);
+        assertTrue("p99 step time of " + p99 + " ms is above " + MAX_P99_MILLIS,
+                MAX_P99_MILLIS <= 0 || p99 <= MAX_P99_MILLIS);
+        assertTrue("p99 slot wait of " + metrics.getSlotWait().getP99() + " ms is above " + MAX_SLOT_WAIT_P99_MILLIS,
+                MAX_SLOT_WAIT_P99_MILLIS <= 0 || metrics.getSlotWait().getP99() <= MAX_SLOT_WAIT_P99_MILLIS);
+        assertTrue("peak heap of " + peakHeapMb + " MB is above " + MAX_HEAP_MB,
+                MAX_HEAP_MB <= 0 || peakHeapMb <= MAX_HEAP_MB);
+    }
+
+    /**
+     * Each iteration writes a row, reads back the rows of its own pipeline, and aggregates over all pipelines.
+     */
+    private static String script(int job) {
+        return "node {\n" +
+            "  for (int i = 0; i < " + ITERATIONS + "; i++) {\n" +
+            "    sqlQuery connectionId: '" + CONNECTION_ID + "', sql: 'INSERT INTO events (job, seq, payload) VALUES (?, ?, ?)', params: [" + job + ", i, 'payload-' + i], logMode: 'none'\n" +
+            "    def own = sqlQuery connectionId: '" + CONNECTION_ID + "', sql: 'SELECT COUNT(*) AS n FROM events WHERE job = ?', params: [" + job + "], returnResult: true, logMode: 'none'\n" +
+            "    if (own[0].N != i + 1) {\n" +
+            "      error \"Expected ${i + 1} row(s), found ${own[0].N}\"\n" +
+            "    }\n" +
+            "    sqlQuery connectionId: '" + CONNECTION_ID + "', sql: 'SELECT job, COUNT(*) AS n FROM events GROUP BY job ORDER BY job', returnResult: true, logMode: 'summary'\n" +
+            "  }\n" +
+            "}";
+    }
+
+    /**
+     * @return the time from the start of each {@code sqlQuery} step to the start of the node after it, in milliseconds
+     */
+    private static List<Long> stepLatencies(WorkflowRun run) {
+        Map<FlowNode, Long> ends = new HashMap<>();
+        List<FlowNode> steps = new ArrayList<>();
+        for (FlowNode node : new DepthFirstScanner().allNodes(run.getExecution())) {
+            for (FlowNode parent : node.getParents()) {
+                ends.put(parent, TimingAction.getStartTime(node));
+            }
+            if (node instanceof StepAtomNode && ((StepAtomNode) node).getDescriptor() instanceof SqlStep.DescriptorImpl) {
+                steps.add(node);
+            }
+        }
+        List<Long> latencies = new ArrayList<>();
+        for (FlowNode step : steps) {
+            latencies.add(ends.get(step) - TimingAction.getStartTime(step));
+        }
+        return latencies;
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    /**
+     * Samples the used heap of the controller while the pipelines run
+     */
+    private static class HeapSampler {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicLong peak = new AtomicLong();
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+        HeapSampler() {
+            timer.scheduleAtFixedRate(this::sample, 0, 100, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        }
+
+        /**
+         * @return the peak of used heap in bytes
+         */
+        long stop() throws InterruptedException {
+            timer.shutdown();
+            timer.awaitTermination(1, TimeUnit.SECONDS);
+            sample();
+            return peak.get();
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package io.jenkins.plugins.sql.step;
 
+import hudson.model.Label;
+import hudson.model.Result;
+import hudson.slaves.DumbSlave;
 import hudson.util.Secret;
 import io.jenkins.plugins.sql.config.SqlGlobalConfiguration;
+import io.jenkins.plugins.sql.metrics.SlowQueryAction;
 import io.jenkins.plugins.sql.model.DatabaseConnection;
+import io.jenkins.plugins.sql.model.SlowStatement;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
@@ -10,6 +15,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import java.io.File;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -65,4 +72,553 @@ public class SqlStepTest {
         jenkins.assertLogContains("Executing SQL from file: test.sql", run);
         jenkins.assertLogContains("Successfully executed", run);
     }
+    
+    @Test
+    public void testMaxRowsAppliedByDriver() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb3;DB_CLOSE_DELAY=-1", "sa", "", 10, 30, true);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-max-rows");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: \"CREATE TABLE numbers (n INT); INSERT INTO numbers VALUES (1), (2), (3), (4)\"\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', sql: 'SELECT * FROM numbers', returnResult: true, maxRows: 2, fetchSize: 1, timeoutSeconds: 10\n" +
+            "  echo \"Fetched ${result.size()} rows\"\n" +
+            "  def all = sqlQuery connectionId: 'test-h2', sql: 'SELECT * FROM numbers', returnResult: true, maxRows: 4\n" +
+            "  echo \"Fetched all ${all.size()} rows\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("row limit of 2 reached", run);
+        jenkins.assertLogContains("Fetched 2 rows", run);
+        jenkins.assertLogContains("Fetched all 4 rows", run);
+        jenkins.assertLogNotContains("row limit of 4 reached", run);
+    }
+    
+    @Test
+    public void testBatchExecution() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb4;DB_CLOSE_DELAY=-1", "sa", "", 10, 30, true);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-batch");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  writeFile file: 'seed.sql', text: \"CREATE TABLE seed (id INT); INSERT INTO seed VALUES (1); INSERT INTO seed VALUES (2); INSERT INTO seed VALUES (3); SELECT COUNT(*) AS total FROM seed;\"\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', file: 'seed.sql', batch: true, batchSize: 2, returnResult: true\n" +
+            "  echo \"Total: ${result[0].TOTAL}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Batch 1: executed 2 statement(s)", run);
+        jenkins.assertLogContains("Batch 2: executed 2 statement(s), rows affected: 2", run);
+        jenkins.assertLogContains("Total: 3", run);
+    }
+    
+    @Test
+    public void testParameterizedQuery() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb5;DB_CLOSE_DELAY=-1", "sa", "", 10, 30, true);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-params");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'CREATE TABLE releases (name VARCHAR(50), version VARCHAR(20))'\n" +
+            "  def name = \"O'Brien\"\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'INSERT INTO releases VALUES (?, ?)', params: [\"${name}\", '1.0']\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', sql: 'SELECT version FROM releases WHERE name = :name', params: [name: name], returnResult: true\n" +
+            "  echo \"Version: ${result[0].VERSION}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Version: 1.0", run);
+    }
+    
+    @Test
+    public void testScriptWithSemicolonsInLiterals() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb6;DB_CLOSE_DELAY=-1", "sa", "", 10, 30, true);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-script");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  writeFile file: 'script.sql', text: '''-- create; then fill\n" +
+            "CREATE TABLE notes (id INT, body VARCHAR(100));\n" +
+            "/* two rows; one statement */\n" +
+            "INSERT INTO notes VALUES (1, 'a;b'), (2, 'it''s; fine');\n" +
+            "'''\n" +
+            "  sqlQuery connectionId: 'test-h2', file: 'script.sql'\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', sql: 'SELECT body FROM notes ORDER BY id', returnResult: true\n" +
+            "  echo \"Bodies: ${result.collect { it.BODY }}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Successfully executed 2 statement(s)", run);
+        jenkins.assertLogContains("Bodies: [a;b, it's; fine]", run);
+    }
+    
+    @Test
+    public void testRunOnAgent() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb7;DB_CLOSE_DELAY=-1", "sa", "", 10, 30, true);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+        DumbSlave agent = jenkins.createOnlineSlave(Label.get("db-agent"));
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-agent");
+        job.setDefinition(new CpsFlowDefinition(
+            "node('db-agent') {\n" +
+            "  writeFile file: 'agent.sql', text: 'CREATE TABLE agent_test (id INT); INSERT INTO agent_test VALUES (1), (2);'\n" +
+            "  sqlQuery connectionId: 'test-h2', file: 'agent.sql', runOnAgent: true\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*) AS total FROM agent_test', returnResult: true, runOnAgent: true\n" +
+            "  echo \"Agent total: ${result[0].TOTAL}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Executing on agent: " + agent.getNodeName(), run);
+        jenkins.assertLogContains("Rows affected: 2", run);
+        jenkins.assertLogContains("Agent total: 2", run);
+    }
+    
+    @Test
+    public void testAbortCancelsRunningStatement() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        // a single connection: the second build only runs if the aborted one gave it back
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb8;DB_CLOSE_DELAY=-1", "sa", "", 1, 30, true);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-abort");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'SELECT SUM(X) FROM SYSTEM_RANGE(1, 1000000000000)'\n" +
+            "}", true));
+        
+        WorkflowRun run = job.scheduleBuild2(0).waitForStart();
+        jenkins.waitForMessage("Executing SQL statement...", run);
+        run.doStop();
+        jenkins.assertBuildStatus(Result.ABORTED, jenkins.waitForCompletion(run));
+        
+        WorkflowJob next = jenkins.createProject(WorkflowJob.class, "test-after-abort");
+        next.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'SELECT 1 AS one', returnResult: true\n" +
+            "}", true));
+        jenkins.assertBuildStatusSuccess(next.scheduleBuild2(0));
+    }
+    
+    @Test
+    public void testWaitForBusyConnectionTimesOut() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb9;DB_CLOSE_DELAY=-1", "sa", "", 1, 30, true);
+        conn.setMaxWaitSeconds(1);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob busy = jenkins.createProject(WorkflowJob.class, "test-busy");
+        busy.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'SELECT SUM(X) FROM SYSTEM_RANGE(1, 1000000000000)'\n" +
+            "}", true));
+        WorkflowRun busyRun = busy.scheduleBuild2(0).waitForStart();
+        jenkins.waitForMessage("Using database connection: test-h2", busyRun);
+        
+        WorkflowJob waiting = jenkins.createProject(WorkflowJob.class, "test-waiting");
+        waiting.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'SELECT 1 AS one'\n" +
+            "}", true));
+        WorkflowRun waitingRun = jenkins.assertBuildStatus(Result.FAILURE, waiting.scheduleBuild2(0));
+        jenkins.assertLogContains("Waiting for DB slot on connection test-h2 (1 of 1 in use, 1 queued)", waitingRun);
+        jenkins.assertLogContains("Timed out after 1 s waiting for a DB slot on connection test-h2", waitingRun);
+        
+        busyRun.doStop();
+        jenkins.assertBuildStatus(Result.ABORTED, jenkins.waitForCompletion(busyRun));
+    }
+    
+    @Test
+    public void testChangedConnectionSwapsPoolWithoutInterruptingQueries() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb10;DB_CLOSE_DELAY=-1", "sa", "", 1, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob setup = jenkins.createProject(WorkflowJob.class, "test-old-setup");
+        setup.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'CREATE TABLE OLD_ONLY (ID INT)'\n" +
+            "}", true));
+        jenkins.assertBuildStatusSuccess(setup.scheduleBuild2(0));
+        
+        WorkflowJob busy = jenkins.createProject(WorkflowJob.class, "test-old-pool");
+        busy.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'SELECT SUM(X) FROM SYSTEM_RANGE(1, 1000000000000)'\n" +
+            "}", true));
+        WorkflowRun busyRun = busy.scheduleBuild2(0).waitForStart();
+        jenkins.waitForMessage("Using database connection: test-h2", busyRun);
+        
+        // a new URL and a bigger pool, without a restart
+        List<DatabaseConnection> changed = new ArrayList<>();
+        changed.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb11;DB_CLOSE_DELAY=-1", "sa", "", 2, 30, true));
+        config.setDatabaseConnections(changed);
+        
+        WorkflowJob next = jenkins.createProject(WorkflowJob.class, "test-new-pool");
+        next.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', sql: \"SELECT COUNT(*) AS CNT FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'OLD_ONLY'\", returnResult: true\n" +
+            "  echo \"old tables=${result[0].CNT}\"\n" +
+            "}", true));
+        WorkflowRun nextRun = jenkins.assertBuildStatusSuccess(next.scheduleBuild2(0));
+        jenkins.assertLogContains("old tables=0", nextRun);
+        
+        // the query on the old pool was left running
+        assertTrue(busyRun.isBuilding());
+        busyRun.doStop();
+        jenkins.assertBuildStatus(Result.ABORTED, jenkins.waitForCompletion(busyRun));
+    }
+    
+    @Test
+    public void testHikariPool() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        DatabaseConnection conn = new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb12;DB_CLOSE_DELAY=-1", "sa", "", 2, 30, true);
+        conn.setPoolProvider("hikari");
+        conn.setMaxLifetimeSeconds(60);
+        conn.setLeakDetectionSeconds(30);
+        connections.add(conn);
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-hikari");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'CREATE TABLE pooled (id INT); INSERT INTO pooled VALUES (1), (2)'\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*) AS TOTAL FROM pooled', returnResult: true\n" +
+            "  echo \"Pooled total: ${result[0].TOTAL}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Pooled total: 2", run);
+    }
+    
+    @Test
+    public void testCachedQueryReusesResult() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb15;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-cache");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'CREATE TABLE cached (id INT); INSERT INTO cached VALUES (1)'\n" +
+            "  def first = sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*) AS TOTAL FROM cached', returnResult: true, cacheTtl: 600\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'INSERT INTO cached VALUES (2)'\n" +
+            "  def second = sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*)  AS TOTAL\\nFROM cached', returnResult: true, cacheTtl: 600\n" +
+            "  def fresh = sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*) AS TOTAL FROM cached', returnResult: true\n" +
+            "  echo \"Totals: ${first[0].TOTAL} ${second[0].TOTAL} ${fresh[0].TOTAL}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Using cached result of 1 row(s) from connection test-h2", run);
+        jenkins.assertLogContains("Totals: 1 1 2", run);
+        
+        // saving changed settings drops the cached results of the connection
+        connections.get(0).setMaxWaitSeconds(60);
+        config.setDatabaseConnections(connections);
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*) AS TOTAL FROM cached', returnResult: true, cacheTtl: 600\n" +
+            "  echo \"Total: ${result[0].TOTAL}\"\n" +
+            "}", true));
+        run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogNotContains("Using cached result", run);
+        jenkins.assertLogContains("Total: 2", run);
+    }
+    
+    @Test
+    public void testReturnedResultCanBeChanged() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb26;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-mutable-result");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: \"CREATE TABLE people (id INT, name VARCHAR(50)); INSERT INTO people VALUES (1, 'John'), (2, 'Jane'), (3, 'Joe')\"\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', sql: 'SELECT * FROM people ORDER BY id', returnResult: true, cacheTtl: 600\n" +
+            "  result[0].NAME = 'Johnny'\n" +
+            "  result[0].NICK = 'JJ'\n" +
+            "  result.remove(1)\n" +
+            "  result.add([ID: 4, NAME: 'Jill'])\n" +
+            "  echo \"Changed: ${result.collect { it.NAME }.join(',')} ${result[0].NICK} ${result.size()}\"\n" +
+            "  def cached = sqlQuery connectionId: 'test-h2', sql: 'SELECT * FROM people ORDER BY id', returnResult: true, cacheTtl: 600\n" +
+            "  echo \"Cached: ${cached.collect { it.NAME }.join(',')} ${cached[0].NICK} ${cached.size()}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Changed: Johnny,Joe,Jill JJ 3", run);
+        // the cached result is shared, so the changes must not reach it
+        jenkins.assertLogContains("Using cached result of 3 row(s)", run);
+        jenkins.assertLogContains("Cached: John,Jane,Joe null 3", run);
+    }
+    
+    @Test
+    public void testCacheTtlRequiresSingleQuery() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb16;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-cache-update");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'CREATE TABLE t (id INT)', returnResult: true, cacheTtl: 60\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusFailure(job.scheduleBuild2(0));
+        jenkins.assertLogContains("'cacheTtl' can only be used with a single SELECT statement", run);
+    }
+    
+    @Test
+    public void testLogModes() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb17;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-log-mode");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  def sampled = sqlQuery connectionId: 'test-h2', sql: 'SELECT X AS SAMPLED FROM SYSTEM_RANGE(70101, 70150)', returnResult: true, logMode: 'sample:3'\n" +
+            "  def summarized = sqlQuery connectionId: 'test-h2', sql: 'SELECT X AS SUMMARIZED FROM SYSTEM_RANGE(70201, 70210)', returnResult: true, logMode: 'summary'\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'SELECT X AS HIDDEN FROM SYSTEM_RANGE(70301, 70305)', logMode: 'none'\n" +
+            "  echo \"Sizes: ${sampled.size()} ${summarized.size()}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("SAMPLED\n70101\n70102\n70103\n... (47 more row(s) not shown)\nRetrieved 50 row(s)", run);
+        jenkins.assertLogNotContains("70104", run);
+        jenkins.assertLogContains("Executing: SELECT X AS SUMMARIZED", run);
+        jenkins.assertLogContains("Retrieved 10 row(s)", run);
+        jenkins.assertLogNotContains("70202", run);
+        jenkins.assertLogNotContains("HIDDEN", run);
+        jenkins.assertLogContains("Sizes: 50 10", run);
+    }
+    
+    @Test
+    public void testParallelStatementsKeepScriptOrder() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb18;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-parallel");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  def result = sqlQuery connectionId: 'test-h2', returnResult: true, parallelism: 3,\n" +
+            "      sql: 'SELECT 1 AS N; SELECT 2 AS N; SELECT X AS N FROM SYSTEM_RANGE(3, 4); SELECT 5 AS N; SELECT 6 AS N'\n" +
+            "  echo \"Order: ${result.collect { it.N }.join(',')}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Running statements on up to 3 connection(s)", run);
+        jenkins.assertLogContains("Successfully executed 5 of 5 statement(s)", run);
+        jenkins.assertLogContains("Order: 1,2,3,4,5,6", run);
+    }
+    
+    @Test
+    public void testParallelStatementFailureDoesNotStopOthers() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb19;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-parallel-failure");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'CREATE TABLE done (id INT)'\n" +
+            "  try {\n" +
+            "    sqlQuery connectionId: 'test-h2', parallelism: 2, sql: 'INSERT INTO done VALUES (1); SELECT * FROM missing; INSERT INTO done VALUES (3)'\n" +
+            "  } finally {\n" +
+            "    def done = sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*) AS TOTAL FROM done', returnResult: true\n" +
+            "    echo \"Done: ${done[0].TOTAL}\"\n" +
+            "  }\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusFailure(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Statement 2 failed:", run);
+        jenkins.assertLogContains("1 of 3 statement(s) failed, the first was statement 2", run);
+        jenkins.assertLogContains("Done: 2", run);
+    }
+    
+    @Test
+    public void testTransactionRollsBackOnFailure() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb20;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-transaction");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'CREATE TABLE atomic (id INT); CREATE TABLE periodic (id INT)'\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'INSERT INTO atomic VALUES (1); INSERT INTO atomic VALUES (2)', transaction: true, isolation: 'serializable'\n" +
+            "  try {\n" +
+            "    sqlQuery connectionId: 'test-h2', sql: 'INSERT INTO atomic VALUES (3); INSERT INTO missing VALUES (4)', transaction: true\n" +
+            "  } catch (e) {\n" +
+            "    echo 'Transaction failed'\n" +
+            "  }\n" +
+            "  try {\n" +
+            "    sqlQuery connectionId: 'test-h2', commitEvery: 2, sql: 'INSERT INTO periodic VALUES (1); INSERT INTO periodic VALUES (2); INSERT INTO periodic VALUES (3); INSERT INTO missing VALUES (4)'\n" +
+            "  } catch (e) {\n" +
+            "    echo 'Periodic commit failed'\n" +
+            "  }\n" +
+            "  def atomic = sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*) AS TOTAL FROM atomic', returnResult: true\n" +
+            "  def periodic = sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*) AS TOTAL FROM periodic', returnResult: true\n" +
+            "  echo \"Counts: ${atomic[0].TOTAL} ${periodic[0].TOTAL}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Committed transaction", run);
+        jenkins.assertLogContains("Rolled back transaction", run);
+        jenkins.assertLogContains("Committed after 2 statement(s)", run);
+        jenkins.assertLogContains("Rolled back the statements since the last commit", run);
+        jenkins.assertLogContains("Counts: 2 2", run);
+    }
+    
+    @Test
+    public void testUnknownIsolationLevel() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb21;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-isolation");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'SELECT 1', isolation: 'SNAPSHOT'\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusFailure(job.scheduleBuild2(0));
+        jenkins.assertLogContains("'isolation' must be one of", run);
+    }
+    
+    @Test
+    public void testLargeObjectsAreWrittenToWorkspace() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb22;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-lobs");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: \"CREATE TABLE docs (id INT, body CLOB, data BLOB); INSERT INTO docs VALUES (1, 'h\\u00e9llo', X'CAFE'), (2, NULL, NULL)\"\n" +
+            "  def docs = sqlQuery connectionId: 'test-h2', sql: 'SELECT id, body, data FROM docs ORDER BY id', returnResult: true, lobDir: 'lobs'\n" +
+            "  echo \"Paths: ${docs[0].BODY} ${docs[0].DATA} ${docs[1].BODY}\"\n" +
+            "  echo \"Text: ${readFile(file: docs[0].BODY, encoding: 'UTF-8')}\"\n" +
+            "  def pairs = sqlQuery connectionId: 'test-h2', sql: 'SELECT a.body, b.body FROM docs a JOIN docs b ON b.id = a.id WHERE a.id = 1', returnResult: true, lobDir: 'lobs'\n" +
+            "  echo \"Second step: ${pairs[0].BODY}\"\n" +
+            "  echo \"First still: ${readFile(file: docs[0].BODY, encoding: 'UTF-8')}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Wrote 2 large object value(s) to lobs", run);
+        jenkins.assertLogContains("Paths: lobs/step1-result1-row1-col2-BODY.txt lobs/step1-result1-row1-col3-DATA.bin null", run);
+        jenkins.assertLogContains("Text: h\u00e9llo", run);
+        jenkins.assertLogContains("Second step: lobs/step2-result1-row1-col2-BODY.txt", run);
+        jenkins.assertLogContains("First still: h\u00e9llo", run);
+        assertTrue(jenkins.jenkins.getWorkspaceFor(job).child("lobs/step2-result1-row1-col1-BODY.txt").exists());
+        try (InputStream data = jenkins.jenkins.getWorkspaceFor(job).child("lobs/step1-result1-row1-col3-DATA.bin").read()) {
+            assertArrayEquals(new byte[] {(byte) 0xCA, (byte) 0xFE}, data.readAllBytes());
+        }
+    }
+    
+    @Test
+    public void testLobDirMustStayInWorkspace() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb23;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-lobs-escape");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'SELECT 1', returnResult: true, lobDir: '../outside'\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusFailure(job.scheduleBuild2(0));
+        jenkins.assertLogContains("'lobDir' must be a directory inside the workspace", run);
+    }
+    
+    @Test
+    public void testSpilledResultIsReadLazily() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb24;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-spill");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: \"CREATE TABLE big AS SELECT X AS id, CONCAT('row ', X) AS label FROM SYSTEM_RANGE(1, 2500)\"\n" +
+            "  def rows = sqlQuery connectionId: 'test-h2', sql: 'SELECT id, label FROM big ORDER BY id', returnResult: true, spillToDisk: true, maxRows: 0, logMode: 'none'\n" +
+            "  long total = 0\n" +
+            "  for (row in rows) {\n" +
+            "    total += row.ID\n" +
+            "  }\n" +
+            "  def page = rows.subList(2498, 2500)\n" +
+            "  echo \"Size ${rows.size()}, total ${total}, middle ${rows[1500].LABEL}, last ${page[0].ID} ${page[1].ID}\"\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Spilled 2500 row(s) to disk", run);
+        jenkins.assertLogContains("Size 2500, total 3126250, middle row 1501, last 2499 2500", run);
+        File[] files = new File(run.getRootDir(), "sql-results").listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+    }
+    
+    @Test
+    public void testSlowStatementsAreReportedWithPlan() throws Exception {
+        SqlGlobalConfiguration config = SqlGlobalConfiguration.get();
+        List<DatabaseConnection> connections = new ArrayList<>();
+        connections.add(new DatabaseConnection("test-h2", "Test H2 Database", "org.h2.Driver", "jdbc:h2:mem:testdb25;DB_CLOSE_DELAY=-1", "sa", "", 5, 30, true));
+        config.setDatabaseConnections(connections);
+        
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-slow");
+        job.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "  sqlQuery connectionId: 'test-h2', sql: 'SELECT COUNT(*) AS n FROM SYSTEM_RANGE(1, 400) a, SYSTEM_RANGE(1, 400) b WHERE MOD(a.X * b.X, 7) = 3', slowQueryMillis: 1\n" +
+            "}", true));
+        
+        WorkflowRun run = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkins.assertLogContains("Statement 1 took", run);
+        jenkins.assertLogContains("captured its execution plan", run);
+        SlowQueryAction action = run.getAction(SlowQueryAction.class);
+        assertNotNull(action);
+        assertEquals(1, action.getStatements().size());
+        SlowStatement slow = action.getStatements().get(0);
+        assertEquals("test-h2", slow.getConnectionId());
+        assertEquals(1, slow.getStatement());
+        assertTrue(slow.getDurationMillis() >= 1);
+        assertNotNull(slow.getPlan());
+        assertTrue(slow.getPlan(), slow.getPlan().contains("SYSTEM_RANGE"));
+    }
 }